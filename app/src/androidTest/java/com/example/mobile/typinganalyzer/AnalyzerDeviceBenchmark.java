@@ -0,0 +1,227 @@
+package com.example.mobile.typinganalyzer;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * On-device counterpart of the JMH suite in the benchmark module: the same hot paths timed on
+ * ART, with allocation counts. Results are logged under the "benchmark" tag and reported as
+ * instrumentation status, e.g. with
+ * {@code adb shell am instrument -w -e class com.example.mobile.typinganalyzer.AnalyzerDeviceBenchmark ...}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalyzerDeviceBenchmark {
+    private static final String TAG = "benchmark";
+    private static final int ROUNDS = 10;
+    private static final int KEYS = 20000;
+    private static final String DATABASE_NAME = "benchmark_profiles.db";
+
+    private int[] codes;
+    private long[] durations;
+    private long[] eventTimes;
+    private Context context;
+    private File dbFile;
+
+    /* one round of a benchmark, returns a value so the work cannot be optimized away */
+    private interface Round {
+        long run();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        // a database of its own next to the app's, never the user's profiles
+        dbFile = context.getDatabasePath(DATABASE_NAME);
+        dbFile.getParentFile().mkdirs();
+        Random random = new Random(42);
+        codes = new int[KEYS];
+        durations = new long[KEYS];
+        eventTimes = new long[KEYS];
+        long time = 0;
+        for (int i = 0; i < KEYS; ++i) {
+            codes[i] = i%6 == 5 ? ' ' : 'a' + random.nextInt(26);
+            durations[i] = 70 + random.nextInt(50);
+            time += durations[i] + 80 + random.nextInt(120);
+            eventTimes[i] = time;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void keystroke() throws Exception {
+        final KeyEventRingBuffer queue = new KeyEventRingBuffer(256);
+        final WordBuffer word = new WordBuffer(16);
+        final DigraphModel digraphs = new DigraphModel(5, 2);
+        final KeyEventRingBuffer.Handler handler = new KeyEventRingBuffer.Handler() {
+            private long timer;
+
+            @Override
+            public void onKeyEvent(int code, long duration, long eventTime) {
+                int letter = DigraphModel.letterIndex(code);
+                if (letter < 0) {
+                    word.reset();
+                } else {
+                    int previous = word.length() > 0 ? DigraphModel.letterIndex(word.chars()[word.length() - 1]) : -1;
+                    long latency = word.length() > 0 ? Math.max(0, eventTime - timer - duration) : 0;
+                    digraphs.observe(previous, letter, duration, latency, true);
+                    word.append((char)code, latency, duration);
+                }
+                timer = eventTime;
+            }
+        };
+        measure("keystroke", KEYS, new Round() {
+            @Override
+            public long run() {
+                for (int i = 0; i < KEYS; ++i) {
+                    queue.offer(codes[i], durations[i], eventTimes[i]);
+                    queue.drain(handler);
+                }
+                return word.length();
+            }
+        });
+    }
+
+    @Test
+    public void wordScoring() throws Exception {
+        final int words = 1000;
+        final int length = 5;
+        final long[][] samples = new long[words][];
+        final WordProfile[] profiles = new WordProfile[words];
+        for (int w = 0; w < words; ++w) {
+            samples[w] = Arrays.copyOfRange(durations, w, w + 2*length - 1);
+            profiles[w] = WordProfile.of(samples[w], length);
+            profiles[w].add(Arrays.copyOfRange(durations, w + 1, w + 2*length));
+        }
+        final WordScorer scorer = new WordScorer(2);
+        measure("word scoring", words, new Round() {
+            @Override
+            public long run() {
+                long accepted = 0;
+                for (int w = 0; w < words; ++w) {
+                    if (WordScorer.accepts(scorer.countWithinThreshold(profiles[w].getTimings(), samples[w], length), length)) {
+                        accepted++;
+                    }
+                    profiles[w].add(samples[w]);
+                }
+                return accepted;
+            }
+        });
+    }
+
+    @Test
+    public void dictionaryLookup() throws Exception {
+        InputStream in = context.getAssets().open("words.dict");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            bytes.write(chunk, 0, n);
+        }
+        in.close();
+        final DictionaryIndex dictionary = DictionaryIndex.load(ByteBuffer.wrap(bytes.toByteArray()));
+        final char[][] words = {"the".toCharArray(), "Because".toCharArray(), "qwzx".toCharArray(), "information".toCharArray()};
+        measure("dictionary lookup", 4000, new Round() {
+            @Override
+            public long run() {
+                long found = 0;
+                for (int i = 0; i < 4000; ++i) {
+                    char[] word = words[i & 3];
+                    if (dictionary.lookup(word, word.length) >= 0) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
+    @Test
+    public void profileFlush() throws Exception {
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        db.enableWriteAheadLogging();
+        db.execSQL(TimeProfileContract.SQL_CREATE_ENTRIES);
+        final int batch = 32;
+        final long[] sums = TimingStats.initial(durations, 6);
+        final byte[] blob = TimingCodec.encode(sums, null);
+        SQLiteStatement insert = db.compileStatement(TimeProfileContract.SQL_INSERT_ENTRY);
+        for (int i = 0; i < batch; ++i) {
+            insert.bindString(1, AnalyzerCore.GLOBAL_PARTITION);
+            insert.bindString(2, "word" + i);
+            insert.bindLong(3, 1);
+            insert.bindBlob(4, blob);
+            insert.executeInsert();
+        }
+        final SQLiteStatement update = db.compileStatement(TimeProfileContract.SQL_UPDATE_ENTRY);
+        measure("profile flush of " + batch, batch, new Round() {
+            @Override
+            public long run() {
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < batch; ++i) {
+                        update.bindLong(1, 2);
+                        update.bindBlob(2, TimingCodec.encode(sums, blob));
+                        update.bindLong(3, i + 1);
+                        update.executeUpdateDelete();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return batch;
+            }
+        });
+        db.close();
+    }
+
+    /* runs a warm-up round and ROUNDS measured rounds, reports the median time and the
+     * allocations per operation
+     */
+    @SuppressWarnings("deprecation")
+    private void measure(String name, int ops, Round round) {
+        long sink = round.run();
+        long[] nanos = new long[ROUNDS];
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int r = 0; r < ROUNDS; ++r) {
+            long start = System.nanoTime();
+            sink += round.run();
+            nanos[r] = System.nanoTime() - start;
+        }
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+        Arrays.sort(nanos);
+        double nanosPerOp = (double)nanos[ROUNDS/2]/ops;
+        double allocationsPerOp = (double)allocations/(ROUNDS*(long)ops);
+
+        Log.i(TAG, name + ": " + nanosPerOp + " ns/op, " + allocationsPerOp + " allocations/op (" + sink + ")");
+        Bundle results = new Bundle();
+        results.putDouble(name + " ns/op", nanosPerOp);
+        results.putDouble(name + " allocations/op", allocationsPerOp);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+        assertTrue(nanosPerOp > 0);
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.mobile.typinganalyzer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Moves keystroke analysis off the UI thread. Key events are enqueued into a KeyEventRingBuffer
+ * by the UI thread and a single worker thread drains them into the KeyboardAnalyzer, which is
+ * where the words get built, scored and written to the database. The only work left on the UI
+ * thread is the enqueue itself.
+ *
+ * The pipeline lives as long as the input method service. The worker builds the analyzer and
+ * opens the database and dictionary itself before it starts draining, so the keyboard can be used
+ * straight away; keys typed during the warm-up simply wait in the queue.
+ *
+ * If the user opted in (setKeyLogEnabled(), off by default), every key the worker takes off the
+ * queue is also appended to the KeystrokeLog in the app's files directory, so the raw timings are
+ * kept for rebuilding the profiles later. Keys typed into password fields and fields that ask for
+ * no personalized learning are never logged. Turning the log off deletes it.
+ *
+ * The enqueue and the delay from a key release until the analyzer is done with the key are timed
+ * into the Metrics, next to the stages timed inside the analyzer.
+ *
+ * The partition of the profiles (the app and kind of input field) travels through the queue as a
+ * marker event in between the keys, so every key is analysed in the partition it was typed in.
+ * Partition names get a small id on the UI thread that the marker carries in place of a duration.
+ * If the queue is full the marker stays pending on the UI thread and goes in ahead of the next
+ * key; until it does, the keys are dropped rather than analysed or logged in the wrong partition.
+ *
+ * Snapshot exports and imports also run on the worker, in between keys, so they never race with
+ * the analysis. So does the ProfileMaintenance, once no key has come in for a while; it stops as
+ * soon as a key or a task is waiting.
+ */
+public class AnalysisPipeline implements KeyEventRingBuffer.Handler {
+    private static final int QUEUE_CAPACITY = 256;
+    // upper bound on how long the worker sleeps if a wake-up is ever missed
+    private static final long MAX_PARK_NANOS = 100000000L;
+    // kept out of backups by res/xml/backup_rules.xml
+    private static final String KEY_LOG_DIR = "keylog";
+    // 16 segments of 16384 keys, about 5 MB for the last 260000 keys
+    private static final int KEY_LOG_SEGMENT_RECORDS = 16384;
+    private static final int KEY_LOG_SEGMENTS = 16;
+    private static final String KEY_LOG_PREF = "keylog_enabled";
+    // no key has these codes; the second one starts a field whose keys must not be logged
+    private static final int PARTITION_MARKER = Integer.MIN_VALUE;
+    private static final int PRIVATE_PARTITION_MARKER = Integer.MIN_VALUE + 1;
+    // how long the keyboard has to be idle before the maintenance is looked at, and how often
+    private static final long MAINTENANCE_IDLE_TIME = 10000;
+
+    private final KeyEventRingBuffer queue;
+    private final Context context;
+    private final StartupTimings startupTimings;
+    private final Metrics metrics;
+    private final LatencyHistogram enqueueTimes;
+    private final LatencyHistogram keyToScoreTimes;
+    private final AtomicLong delayedMarkers;
+    private final Thread worker;
+    private final ConcurrentLinkedQueue<FutureTask<?>> tasks = new ConcurrentLinkedQueue<>();
+    // partition ids, only used by the UI thread
+    private final HashMap<String, Integer> partitionIds = new HashMap<>();
+    // partition names by id, replaced by a longer copy whenever the UI thread adds one
+    private volatile String[] partitionNames = {AnalyzerCore.GLOBAL_PARTITION};
+    // the partition marker that did not fit into the queue yet, only used by the UI thread
+    private boolean markerPending;
+    private int pendingMarker;
+    private int pendingPartitionId;
+    private long pendingMarkerTime;
+    // only touched by the worker thread
+    private KeyboardAnalyzer analyzer;
+    private KeystrokeLog keyLog;
+    // the current field is private, so its keys stay out of the keystroke log
+    private boolean privateInput;
+    private volatile boolean running;
+    private volatile boolean parked;
+    private volatile boolean flushRequested;
+    private volatile long processed;
+    // elapsedRealtime() of the last key or maintenance check, only touched by the worker thread
+    private long lastActivity;
+    private final ProfileMaintenance.StopSignal maintenanceStop = new ProfileMaintenance.StopSignal() {
+        @Override
+        public boolean shouldStop() {
+            return !running || flushRequested || !queue.isEmpty() || !tasks.isEmpty();
+        }
+    };
+
+    public AnalysisPipeline(Context context, StartupTimings startupTimings, Metrics metrics) {
+        this.context = context;
+        this.startupTimings = startupTimings;
+        this.metrics = metrics;
+        enqueueTimes = metrics.histogram("enqueue");
+        // only millisecond resolution, the key events carry elapsedRealtime() times
+        keyToScoreTimes = metrics.histogram("key_to_score");
+        delayedMarkers = metrics.counter("partition_markers_delayed");
+        queue = new KeyEventRingBuffer(QUEUE_CAPACITY);
+        partitionIds.put(AnalyzerCore.GLOBAL_PARTITION, 0);
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, "TypingAnalyzer-worker");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        worker.start();
+    }
+
+    /* Stops the worker once it has drained whatever is still queued, written back the cached
+     * profiles and closed the database.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Asks the worker to write back all pending profile changes as soon as it has handled the
+     * events queued so far. Used when input finishes so nothing is left only in memory.
+     */
+    public void requestFlush() {
+        flushRequested = true;
+        LockSupport.unpark(worker);
+    }
+
+    /* Called on the UI thread when input starts in another app or field; the keys that follow are
+     * analysed in that partition. Keys of a private field are never written to the keystroke log.
+     */
+    public void setPartition(String partition, boolean privateInput, long eventTime) {
+        Integer id = partitionIds.get(partition);
+        if (id == null) {
+            String[] names = Arrays.copyOf(partitionNames, partitionNames.length + 1);
+            names[names.length - 1] = partition;
+            partitionNames = names;
+            id = names.length - 1;
+            partitionIds.put(partition, id);
+        }
+        pendingMarker = privateInput ? PRIVATE_PARTITION_MARKER : PARTITION_MARKER;
+        pendingPartitionId = id;
+        pendingMarkerTime = eventTime;
+        markerPending = true;
+        if (!offerMarker()) {
+            delayedMarkers.incrementAndGet();
+        }
+        if (parked) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /* enqueues the pending partition marker, returns false if the queue is still full */
+    private boolean offerMarker() {
+        if (queue.offer(pendingMarker, pendingPartitionId, pendingMarkerTime)) {
+            markerPending = false;
+        }
+        return !markerPending;
+    }
+
+    /* Turns the keystroke log on or off, for good: the choice is kept across restarts, and turning
+     * the log off deletes what was logged so far.
+     */
+    public Future<Boolean> setKeyLogEnabled(final boolean enabled) {
+        return runOnWorker(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                keyLogPreferences().edit().putBoolean(KEY_LOG_PREF, enabled).apply();
+                if (enabled && keyLog == null) {
+                    openKeyLog();
+                } else if (!enabled) {
+                    deleteKeyLog();
+                }
+                return keyLog != null;
+            }
+        });
+    }
+
+    /* writes a ProfileSnapshot of the model to the file, the future yields the number of profiles */
+    public Future<Integer> exportSnapshot(final File file) {
+        return runOnWorker(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return analyzer.exportSnapshot(file, SystemClock.elapsedRealtime());
+            }
+        });
+    }
+
+    /* replaces the model with a ProfileSnapshot file, the future yields the number of profiles */
+    public Future<Integer> importSnapshot(final File file) {
+        return runOnWorker(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return analyzer.importSnapshot(file);
+            }
+        });
+    }
+
+    /* runs the task on the worker once it has handled the events queued so far */
+    private <T> Future<T> runOnWorker(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        tasks.add(future);
+        LockSupport.unpark(worker);
+        return future;
+    }
+
+    /* Called on the UI thread for every key release. Returns false if the event was dropped
+     * because the worker is too far behind.
+     */
+    public boolean submit(int code, long duration, long eventTime) {
+        long start = System.nanoTime();
+        // a key that cannot follow its partition marker is dropped along with it
+        boolean accepted = (!markerPending || offerMarker()) && queue.offer(code, duration, eventTime);
+        if (parked) {
+            LockSupport.unpark(worker);
+        }
+        enqueueTimes.record(System.nanoTime() - start);
+        return accepted;
+    }
+
+    private void runWorker() {
+        long start = System.nanoTime();
+        analyzer = new KeyboardAnalyzer(context, metrics);
+        analyzer.warmUp();
+        if (keyLogPreferences().getBoolean(KEY_LOG_PREF, false)) {
+            openKeyLog();
+        }
+        startupTimings.recordWarmUp(System.nanoTime() - start, queue.size());
+        lastActivity = SystemClock.elapsedRealtime();
+
+        while (running) {
+            if (queue.drain(this) == 0) {
+                FutureTask<?> task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                if (flushRequested) {
+                    flushRequested = false;
+                    analyzer.flush(SystemClock.elapsedRealtime());
+                } else {
+                    // idle, so let the time threshold of the write-behind kick in
+                    long now = SystemClock.elapsedRealtime();
+                    analyzer.maybeFlush(now);
+                    if (now - lastActivity >= MAINTENANCE_IDLE_TIME) {
+                        analyzer.maintainIfDue(now, maintenanceStop);
+                        lastActivity = SystemClock.elapsedRealtime();
+                    }
+                }
+                parked = true;
+                // re-check after advertising that we are about to sleep so no wake-up is lost
+                if (queue.isEmpty() && running && !flushRequested && tasks.isEmpty()) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                parked = false;
+            }
+        }
+        queue.drain(this);
+        FutureTask<?> task;
+        while ((task = tasks.poll()) != null) {
+            task.cancel(false);
+        }
+        analyzer.flush(SystemClock.elapsedRealtime());
+        analyzer.close();
+        if (keyLog != null) {
+            keyLog.close();
+        }
+    }
+
+    @Override
+    public void onKeyEvent(int code, long duration, long eventTime) {
+        lastActivity = eventTime;
+        if (code == PARTITION_MARKER || code == PRIVATE_PARTITION_MARKER) {
+            analyzer.setPartition(partitionNames[(int)duration]);
+            privateInput = code == PRIVATE_PARTITION_MARKER;
+            return;
+        }
+        if (keyLog != null && !privateInput) {
+            try {
+                keyLog.append(code, duration, eventTime);
+            } catch (IOException e) {
+                Log.w("keylog", "cannot write the keystroke log, turning it off", e);
+                keyLog = null;
+            }
+        }
+        analyzer.push_char(code, duration, eventTime);
+        keyToScoreTimes.record((SystemClock.elapsedRealtime() - eventTime)*1000000L);
+        processed++;
+    }
+
+    private SharedPreferences keyLogPreferences() {
+        return context.getSharedPreferences(context.getString(R.string.prefs_key), Context.MODE_PRIVATE);
+    }
+
+    /* closes the log if it is open and deletes all its segments */
+    private void deleteKeyLog() {
+        if (keyLog != null) {
+            keyLog.close();
+            keyLog = null;
+        }
+        for (File segment : KeystrokeLog.segments(new File(context.getFilesDir(), KEY_LOG_DIR))) {
+            if (!segment.delete()) {
+                Log.w("keylog", "cannot delete " + segment);
+            }
+        }
+    }
+
+    /* the analysis keeps running without the log if it cannot be opened */
+    private void openKeyLog() {
+        try {
+            keyLog = new KeystrokeLog(new File(context.getFilesDir(), KEY_LOG_DIR), KEY_LOG_SEGMENT_RECORDS, KEY_LOG_SEGMENTS);
+        } catch (IOException e) {
+            Log.w("keylog", "cannot open the keystroke log", e);
+        }
+    }
+
+    /* number of events waiting for the worker */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /* number of events dropped because the queue was full */
+    public long getDroppedCount() {
+        return queue.droppedCount();
+    }
+
+    /* number of events the worker has handed to the analyzer */
+    public long getProcessedCount() {
+        return processed;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.mobile.typinganalyzer;
+
+import android.content.Context;
+import android.content.Intent;
+
+/* Sends the user back to the home screen once a score goes over its threshold, leaving the app
+ * that was being typed into.
+ */
+public class HomeScreenAlertSink implements AlertSink {
+    private final Context context;
+
+    public HomeScreenAlertSink(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void onWordScored(double score, boolean accepted) {
+    }
+
+    @Override
+    public void onThresholdExceeded(String scoreName, double score, double threshold) {
+        Intent startMain = new Intent(Intent.ACTION_MAIN);
+        startMain.addCategory(Intent.CATEGORY_HOME);
+        startMain.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(startMain);
+    }
+}
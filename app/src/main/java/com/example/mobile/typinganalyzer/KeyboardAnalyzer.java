@@ -1,286 +1,219 @@
 package com.example.mobile.typinganalyzer;
 
 
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.inputmethodservice.Keyboard;
-import android.support.annotation.NonNull;
-import android.widget.Toast;
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import static android.os.SystemClock.elapsedRealtime;
-import static java.lang.StrictMath.abs;
 
-public class KeyboardAnalyzer {
-    private String curWord;
-    private ArrayList<Long> curTimings;
-    private Set<String> wordSet;
-    private TimeProfileDbHelper dbHelper;
-    private SharedPreferences prefs;
-    private long timer;
-    private double score;
+/* Runs the AnalyzerCore inside the keyboard: the dictionary comes from the APK, the profiles from
+ * the SQLite database, the scores and the digraph model from the app's private storage, and the
+ * alerts go through an AlertDispatcher to the log, a notification and the home screen. Everything
+ * is built on the AnalysisPipeline worker thread.
+ *
+ * The whole model can be exported to and imported from a ProfileSnapshot file, and the profile
+ * table is kept in shape by ProfileMaintenance.
+ */
+public class KeyboardAnalyzer implements Clock {
+    private static final String DICTIONARY_ASSET = "words.dict";
+    // word scores reach the sinks at most once a second, the same alert at most once a minute
+    private static final long SCORE_INTERVAL = 1000;
+    private static final long ALERT_COOLDOWN = 60000;
     private Context context;
-    private String scoreID = "score";
-    private final double SCORE_THRESHOLD = 20;
-    private final double COUNT_THRESHOLD = 5;
-    private final double STDDEV_THRESHOLD = 2;
+    private TimeProfileDbHelper dbHelper;
+    private final AnalyzerConfig config = new AnalyzerConfig();
+    private final DictionaryIndex dictionary;
+    private final SqliteProfileStore profileStore;
+    private final PreferencesStateStore stateStore;
+    private final AlertDispatcher alerts;
+    private final Metrics metrics;
+    private final ProfileMaintenance maintenance;
+    private AnalyzerCore core;
 
 
-    public KeyboardAnalyzer(Context context) {
+    public KeyboardAnalyzer(Context context, Metrics metrics) {
         this.context = context;
-        curWord = new String();
-        curTimings = new ArrayList<>();
+        this.metrics = metrics;
         dbHelper = new TimeProfileDbHelper(context);
-        prefs = context.getSharedPreferences(context.getString(R.string.prefs_key), Context.MODE_PRIVATE);
-        score = Double.valueOf(prefs.getString(scoreID, "0"));
-        wordSet = new HashSet<>();
-        timer = elapsedRealtime();
-
-        // put all the words in a set for quick access later
-        String[] wordList = context.getResources().getStringArray(R.array.words);
-        for (int i = 0; i < wordList.length; ++i) {
-            wordSet.add(wordList[i]);
+        dictionary = DictionaryIndex.load(mapDictionary());
+        profileStore = new SqliteProfileStore(dbHelper, metrics);
+        stateStore = new PreferencesStateStore(context, metrics);
+        alerts = new AlertDispatcher(this, SCORE_INTERVAL, ALERT_COOLDOWN, metrics);
+        alerts.addSink(new LogAlertSink());
+        alerts.addSink(new NotificationAlertSink(context));
+        // leaving the app must not wait out the cooldown of the notification
+        alerts.addProtectiveSink(new HomeScreenAlertSink(context));
+        if (BuildConfig.DEBUG) {
+            alerts.setTraceSink(new ScoreTraceSink());
         }
+        maintenance = new ProfileMaintenance(context, dbHelper, config, metrics);
+        core = newCore();
     }
 
-    /* The only function needed for interfacing with this class. This function take a character
-     * (presumably the next character in the text) and the duration of the key press. Alphanumeric,
-     * space, and backspace are only considered; everything else is ignored for simplicity. Words
-     * are delimited with space and backspace. Once a word is formed, it is pushed on for further
-     * analysis (checked with the database).
-     */
-    public void push_char(int c, long duration) {
-        Toast.makeText(context, String.valueOf(c), Toast.LENGTH_SHORT);
-        long latency = 0;
-        if (curWord.length() > 0) {
-            latency = getLatency(duration);
-        }
-        if ((char)c == ' ') {
-            // check if the word is in the database and integrate the timings
-            updateEntry();
-            // reset the word and the timings
-            resetWord();
-        } else if (c == Keyboard.KEYCODE_DELETE) {
-            Toast.makeText(context, "pressed delete", Toast.LENGTH_SHORT);
-            resetWord();
-        } else if ((c > 64 && c < 91) || (c > 96 && c < 123)) { // A-Z and a-z
-            if (curWord.length() > 0) {
-                curTimings.add(latency);
-            }
-            curTimings.add(duration);
-            curWord = curWord.concat(String.valueOf((char)c));
-        }
+    private AnalyzerCore newCore() {
+        return new AnalyzerCore(config, this, dictionary, profileStore, stateStore, alerts, metrics);
     }
 
-    /* subtracts the duration from the time between newTimer and timer to get the latency, also
-     * updates the timer.
+    /* Hands the key to the core. This is called from the AnalysisPipeline worker thread, not the
+     * UI thread, which is why the elapsedRealtime() at which the key was released is passed in
+     * rather than read here.
      */
-    private long getLatency(long duration) {
-        long newTimer = elapsedRealtime();
-        long latency = newTimer - timer - duration;
-        if (latency < 0) {
-            latency = 0;
-        }
-        timer = newTimer;
-        return latency;
+    public void push_char(int c, long duration, long eventTime) {
+        core.push_char(c, duration, eventTime);
     }
 
-    /* resets the word and timings */
-    private void resetWord() {
-        curWord = "";
-        curTimings.clear();
+    @Override
+    public long now() {
+        return elapsedRealtime();
     }
 
-    /* returns the updated mean from the given parameters */
-    private double updateMean(double curMean, double value, int curCount) {
-        return curMean + (value - curMean)/(curCount + 1);
+    /* Opens the database ahead of the first word so that the first lookup does not pay for it.
+     * Called on the worker thread right after construction.
+     */
+    public void warmUp() {
+        dbHelper.getWritableDatabase();
     }
 
-    /* returns the updated variance from the given parameters */
-    private double updateVar(double curVar, double curMean, double value, int curCount) {
-        return ((double)curCount - 1)/(double)curCount*curVar + (value - curMean)*(value - curMean)/(curCount + 1);
+    /* Closes the database, flush() must have been called before. The alerts still pending are
+     * delivered on the dispatcher thread.
+     */
+    public void close() {
+        dbHelper.close();
+        alerts.close();
     }
 
-    /* Checks if the timings for this word are good or not. It goes through each timing and figures
-     * out whether it falls in the threshold or not. It keeps track of how many timings are good and
-     * checks for the overall goodness. If the timings are bad, then the score is increases
-     * proportional to the square root of the length of the word. Once the score is high enough,
-     * some sort of alert will be given to user. This function returns a boolean which indicates
-     * whether the timing was good or not.
+    /* Registers a callback for the alerts; it is called on the dispatcher thread, with the word
+     * scores coalesced like for every other sink.
      */
-    private boolean checkWordUpdateScore(ArrayList<Double> timings) {
-        boolean result;
-        int length = curWord.length();
-        int miniScore = 0;
-        for (int i = 0; i < 4*length - 2; i += 2) {
-            long value = curTimings.get(i>>1);
-            double avg = timings.get(i);
-            double stdDev = Math.sqrt(timings.get(i + 1));
-            if (abs(value - avg) < STDDEV_THRESHOLD*stdDev) {
-                miniScore++;
-            }
-        }
-        int num, dom;
-        if (length == 1) {
-            num = 1;
-            dom = 1;
-        } else if (length == 2) {
-            num = 2;
-            dom = 3;
-        } else {
-            num = 3;
-            dom = 4;
-        }
-        if (dom*miniScore < num*(2*length - 1)) {
-            score += Math.sqrt(length);
-            result = false;
-        } else {
-            score -= Math.sqrt(length);
-            if (score < 0) {
-                score = 0;
-            }
-            result = true;
-        }
-        inspectScore();
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(scoreID, String.valueOf(score));
-        editor.commit();
-        return result;
+    public void addAlertSink(AlertSink sink) {
+        alerts.addSink(sink);
     }
 
-
-    /* Looks at the score to see if it is above the threshold, yes: do some action and reset score
-     * no: do nothing.
-     */
-    private void inspectScore() {
-        //Log.i("score", String.valueOf(score));
-        Toast.makeText(context, String.valueOf(score), Toast.LENGTH_SHORT).show();
-        if (score > SCORE_THRESHOLD) {
-            Toast.makeText(context, String.valueOf(score) + " is over " + SCORE_THRESHOLD, Toast.LENGTH_SHORT).show();
-            score = 0;
-            exitToHome();
-        }
+    /* switches the analysis to the profiles of another app or input field */
+    public void setPartition(String partition) {
+        core.setPartition(partition);
     }
 
-    private void exitToHome() {
-        Intent startMain = new Intent(Intent.ACTION_MAIN);
-        startMain.addCategory(Intent.CATEGORY_HOME);
-        startMain.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        context.startActivity(startMain);
+    public void maybeFlush(long now) {
+        core.maybeFlush(now);
     }
 
-    /* Called when there is a viable word to investigate. The curWord is first checked against the
-     * hash map of all the common words. If that condition passes, then the word is searched for in
-     * the database. If the word is in the database, then a couple of things happen depending on a
-     * some conditions:
-     *
-     *    1.) if the amount of times the word has been encountered is less than a certain amount,
-     *        the timings get integrated with the current timing stats (average and variance) in the
-     *        database. The first few set of words is crucial for determining the average and
-     *        variance for the timings.
-     *    2.) if amount is higher, then it gets tested for whether the timings are good or not using
-     *        checkWordUpdateScore() method. If the timings are not good, then this function doesn't
-     *        do anything (but checkWordUpdateScore() will update the score). If the timiings are
-     *        good, then the database is updated with these timings.
-     *
-     *  If the word is not in the database, then it is inserted with the appropriate initial values
-     *  for each average and variance.
+    /* Writes all cached profile changes back to the database in one transaction and hands the
+     * scores to SharedPreferences without waiting on the disk.
      */
-    private void updateEntry() {
-        // check if word is in the word set
-        String word = curWord.toLowerCase();
-        if (wordSet.contains(word)) {
-            SQLiteDatabase dbRead = dbHelper.getReadableDatabase();
-            SQLiteDatabase dbWRite = dbHelper.getWritableDatabase();
-
-            // search for word in database
-            Cursor cursor = searchWord(word, dbRead);
+    public void flush(long now) {
+        core.flush(now);
+    }
 
-            // check if the query returned anything, yes: update, no: insert row
-            int length = word.length();
-            if (cursor.getCount() > 0) {
-                int count = extractCount(cursor);
-                ArrayList<Double> timings = extractTimings(cursor, length);
-                if (count < COUNT_THRESHOLD || checkWordUpdateScore(timings)) {
-                    updateWord(dbRead, cursor, length, timings, count);
-                }
-            } else {
-                insertWord(word, dbWRite, length);
-            }
+    /* Runs the ProfileMaintenance if it is due, stopping early if stop says so. The cached
+     * profiles are flushed before and dropped after, since the rows under them may have been
+     * deleted or rewritten.
+     */
+    public void maintainIfDue(long now, ProfileMaintenance.StopSignal stop) {
+        if (!maintenance.isDue(System.currentTimeMillis())) {
+            return;
         }
+        core.flush(now);
+        maintenance.run(stop);
+        core.getCache().clear();
     }
 
-    private Cursor searchWord(String word, SQLiteDatabase dbRead) {
-        String selection = TimeProfileContract.TimeProfile.C_WORD + " = ?";
-        String[] selectionArgs = {word};
-        return dbRead.query(TimeProfileContract.TimeProfile.TABLE_NAME, null, selection, selectionArgs, null, null, null);
+    public TimeProfileCache getCache() {
+        return core.getCache();
     }
 
-    /* gets the amount of times the word has been encountered from the database */
-    private int extractCount(Cursor cursor) {
-        cursor.moveToFirst();
-        return cursor.getInt(cursor.getColumnIndexOrThrow(TimeProfileContract.TimeProfile.C_COUNT));
+    /* Writes the whole model to the file as a ProfileSnapshot, after flushing so the database is
+     * up to date. The snapshot is written next to the file and renamed over it once complete.
+     * Returns the number of profiles written.
+     */
+    public int exportSnapshot(File file, long now) throws IOException {
+        core.flush(now);
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), 65536);
+        int n;
+        try {
+            ProfileSnapshot.Writer snapshot = new ProfileSnapshot.Writer(out, core.getScore(), core.getKeystrokeScore(), core.getDigraphs());
+            n = dbHelper.exportProfiles(snapshot);
+            snapshot.finish();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("cannot rename " + tmp);
+        }
+        return n;
     }
 
-    /* get the timing info for the word and returns in in a ArrayList */
-    @NonNull
-    private ArrayList<Double> extractTimings(Cursor cursor, int length) {
-        cursor.moveToFirst();
-        ArrayList<Double> timings = new ArrayList<>();
-        for (int i = 0; i < length - 1; ++i) {
-            timings.add(cursor.getDouble(cursor.getColumnIndexOrThrow("d" + String.valueOf(i) + "_avg")));
-            timings.add(cursor.getDouble(cursor.getColumnIndexOrThrow("d" + String.valueOf(i) + "_var")));
-            timings.add(cursor.getDouble(cursor.getColumnIndexOrThrow("l" + String.valueOf(i) + "_avg")));
-            timings.add(cursor.getDouble(cursor.getColumnIndexOrThrow("l" + String.valueOf(i) + "_var")));
+    /* Replaces the whole model with the one in the snapshot file. Pending changes of the current
+     * model are dropped, and nothing is replaced if the snapshot turns out to be damaged. The core
+     * is rebuilt afterwards so it starts from the imported profiles, scores and digraphs. Returns
+     * the number of profiles imported.
+     */
+    public int importSnapshot(File file) throws IOException {
+        DigraphModel digraphs = new DigraphModel(config.countThreshold, config.stdDevThreshold);
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+        ProfileSnapshot.Reader snapshot;
+        int n;
+        try {
+            snapshot = new ProfileSnapshot.Reader(in, digraphs);
+            n = dbHelper.importProfiles(snapshot);
+        } finally {
+            in.close();
         }
-        timings.add(cursor.getDouble(cursor.getColumnIndexOrThrow("d" + String.valueOf(length - 1) + "_avg")));
-        timings.add(cursor.getDouble(cursor.getColumnIndexOrThrow("d" + String.valueOf(length - 1) + "_var")));
-        return timings;
+        String partition = core.getPartition();
+        stateStore.saveScore(AnalyzerCore.SCORE_ID, snapshot.getScore());
+        stateStore.saveScore(AnalyzerCore.KEYSTROKE_SCORE_ID, snapshot.getKeystrokeScore());
+        stateStore.commit();
+        stateStore.saveDigraphs(digraphs);
+        core = newCore();
+        core.setPartition(partition);
+        return n;
     }
 
-    /* updates the database with the curTimings */
-    private void updateWord(SQLiteDatabase dbRead, Cursor cursor, int length, ArrayList<Double> timings, int count) {
-        ContentValues row = new ContentValues();
-        for (int i = 0; i < 4*length - 2; i += 2) {
-            double avg = timings.get(i);
-            double var = timings.get(i + 1);
-            long value = curTimings.get(i>>1);
-            double newAvg = updateMean(avg, value, count);
-            double newVar = updateVar(var, avg, value, count);
-            if ((i>>1)%2 == 0) { // i/2 is even
-                row.put("d" + String.valueOf(i>>2) + "_avg", newAvg);
-                row.put("d" + String.valueOf(i>>2) + "_var", newVar);
-            } else {
-                row.put("l" + String.valueOf(i>>2) + "_avg", newAvg);
-                row.put("l" + String.valueOf(i>>2) + "_var", newVar);
+    /* Maps the dictionary asset straight out of the APK. If the asset ended up compressed it has
+     * no file descriptor, so it is read into memory instead.
+     */
+    private ByteBuffer mapDictionary() {
+        try {
+            AssetFileDescriptor fd = context.getAssets().openFd(DICTIONARY_ASSET);
+            FileInputStream in = fd.createInputStream();
+            try {
+                FileChannel channel = in.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+            } finally {
+                in.close();
             }
+        } catch (IOException e) {
+            Log.i("dictionary", "asset is compressed, reading it into memory");
         }
-        row.put(TimeProfileContract.TimeProfile.C_COUNT, ++count);
-        dbRead.update(TimeProfileContract.TimeProfile.TABLE_NAME, row, "_id=" + cursor.getLong(cursor.getColumnIndex(TimeProfileContract.TimeProfile._ID)), null);
-    }
-
-    /* inserts the word into the database */
-    private void insertWord(String word, SQLiteDatabase dbWRite, int length) {
-        ContentValues row = new ContentValues();
-        row.put(TimeProfileContract.TimeProfile.C_WORD, word);
-        for (int i = 0; i < 4*length - 2; i += 2) {
-            if ((i>>1)%2 == 0) { // i/2 is even
-                row.put("d" + String.valueOf(i>>2) + "_avg", curTimings.get(i>>1));
-                row.put("d" + String.valueOf(i>>2) + "_var", 0);
-            } else {
-                row.put("l" + String.valueOf(i>>2) + "_avg", curTimings.get(i>>1));
-                row.put("l" + String.valueOf(i>>2) + "_var", 0);
+        try {
+            InputStream in = context.getAssets().open(DICTIONARY_ASSET);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int n;
+                while ((n = in.read(chunk)) > 0) {
+                    bytes.write(chunk, 0, n);
+                }
+                return ByteBuffer.wrap(bytes.toByteArray());
+            } finally {
+                in.close();
             }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read the dictionary", e);
         }
-        row.put(TimeProfileContract.TimeProfile.C_COUNT, 1);
-        dbWRite.insert(TimeProfileContract.TimeProfile.TABLE_NAME, null, row);
     }
-
 }
@@ -0,0 +1,330 @@
+package com.example.mobile.typinganalyzer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.inputmethodservice.Keyboard;
+import android.os.SystemClock;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.List;
+
+/* Draws the keyboard and turns touches into keys, in place of the stock KeyboardView. The keys of
+ * each shift state are drawn once into a bitmap layer, so a frame only copies the current layer
+ * and paints the pressed keys over it. Pressing or releasing a key invalidates just that key's
+ * rectangle; the shift key swaps the layer. The layout still comes from the Keyboard parsed from
+ * R.xml.qwerty, which is only used for the key positions, labels and codes.
+ *
+ * Press and release times are the event times of the MotionEvents, moved to the elapsedRealtime()
+ * clock of the pipeline, rather than the time the callbacks happen to run, so a slow frame or a
+ * busy UI thread does not end up in the dwell times. Every pointer is tracked on its own, so
+ * overlapping key presses keep their own durations.
+ *
+ * Keys with more than one code are multi-tap keys, like in the stock KeyboardView: tapping the
+ * same key again within MULTI_TAP_INTERVAL replaces the character it typed with its next code,
+ * by sending a KEYCODE_DELETE ahead of it.
+ *
+ * Given a Metrics, every frame is timed ("keyboard_draw"), along with the delay from a touch to
+ * the frame drawn for it ("touch_to_frame", millisecond resolution like the event times).
+ */
+public class KeyboardRenderView extends View {
+    /* receives the keys of the keyboard */
+    public interface OnKeyActionListener {
+        /* A key to act on: on release, or for a repeatable key on press and then every repeat
+         * interval while it is held.
+         */
+        void onKey(int code);
+
+        /* A key was released after being held for duration ms; eventTime is the elapsedRealtime()
+         * of the release.
+         */
+        void onKeyTiming(int code, long duration, long eventTime);
+    }
+
+    private static final int MAX_POINTERS = 10;
+    private static final long REPEAT_START_DELAY = 400;
+    private static final long REPEAT_INTERVAL = 50;
+    private static final long MULTI_TAP_INTERVAL = 800;
+
+    private Keyboard keyboard;
+    private Keyboard.Key[] keys = new Keyboard.Key[0];
+    private OnKeyActionListener listener;
+    private boolean shifted;
+    // one prebuilt layer per shift state
+    private Bitmap layer;
+    private Bitmap shiftedLayer;
+    private final Paint backgroundPaint = new Paint();
+    private final Paint keyPaint = new Paint();
+    private final Paint pressedPaint = new Paint();
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int keyGap;
+    private final float labelSize;
+    private final float longLabelSize;
+    private final Rect dirty = new Rect();
+
+    // by pointer id: the index of the key held down, or -1, and since when (uptime ms)
+    private final int[] pressedKeys = new int[MAX_POINTERS];
+    private final long[] downTimes = new long[MAX_POINTERS];
+    // the repeatable key being repeated, or -1
+    private int repeatingKey = -1;
+    private final Runnable repeater = new Runnable() {
+        @Override
+        public void run() {
+            if (repeatingKey >= 0 && listener != null) {
+                listener.onKey(keys[repeatingKey].codes[0]);
+                postDelayed(this, REPEAT_INTERVAL);
+            }
+        }
+    };
+
+    // the multi-tap key tapped last, or -1, when it was released (uptime ms) and which code it sent
+    private int lastTapKey = -1;
+    private long lastTapTime;
+    private int tapIndex;
+
+    private LatencyHistogram drawTimes;
+    private LatencyHistogram touchToFrameTimes;
+    // uptime of the oldest touch that no frame has shown yet, or 0
+    private long pendingTouchTime;
+
+    public KeyboardRenderView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        backgroundPaint.setColor(ContextCompat.getColor(context, R.color.keyboard_background));
+        keyPaint.setColor(ContextCompat.getColor(context, R.color.key_background));
+        pressedPaint.setColor(ContextCompat.getColor(context, R.color.key_pressed));
+        labelPaint.setColor(ContextCompat.getColor(context, R.color.key_label));
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+        keyGap = context.getResources().getDimensionPixelSize(R.dimen.key_gap);
+        labelSize = context.getResources().getDimension(R.dimen.key_label_size);
+        longLabelSize = context.getResources().getDimension(R.dimen.key_long_label_size);
+        for (int i = 0; i < MAX_POINTERS; ++i) {
+            pressedKeys[i] = -1;
+        }
+    }
+
+    public void setKeyboard(Keyboard keyboard) {
+        this.keyboard = keyboard;
+        List<Keyboard.Key> list = keyboard.getKeys();
+        keys = list.toArray(new Keyboard.Key[list.size()]);
+        releaseLayers();
+        requestLayout();
+        invalidate();
+    }
+
+    public void setOnKeyActionListener(OnKeyActionListener listener) {
+        this.listener = listener;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        drawTimes = metrics.histogram("keyboard_draw");
+        touchToFrameTimes = metrics.histogram("touch_to_frame");
+    }
+
+    /* switches to the other layer, which is already drawn */
+    public void setShifted(boolean shifted) {
+        if (this.shifted != shifted) {
+            this.shifted = shifted;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (keyboard == null) {
+            setMeasuredDimension(getPaddingLeft() + getPaddingRight(), getPaddingTop() + getPaddingBottom());
+            return;
+        }
+        int width = keyboard.getMinWidth() + getPaddingLeft() + getPaddingRight();
+        if (MeasureSpec.getMode(widthMeasureSpec) != MeasureSpec.UNSPECIFIED) {
+            width = Math.min(width, MeasureSpec.getSize(widthMeasureSpec));
+        }
+        setMeasuredDimension(width, keyboard.getHeight() + getPaddingTop() + getPaddingBottom());
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        releaseLayers();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(repeater);
+        repeatingKey = -1;
+        releaseLayers();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (keyboard == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (layer == null) {
+            layer = buildLayer(false);
+            shiftedLayer = buildLayer(true);
+        }
+        canvas.drawBitmap(shifted ? shiftedLayer : layer, 0, 0, null);
+        for (int i = 0; i < MAX_POINTERS; ++i) {
+            if (pressedKeys[i] >= 0) {
+                keyRect(keys[pressedKeys[i]], dirty);
+                canvas.drawRect(dirty, pressedPaint);
+            }
+        }
+        if (drawTimes != null) {
+            drawTimes.record(System.nanoTime() - start);
+            if (pendingTouchTime > 0) {
+                touchToFrameTimes.record((SystemClock.uptimeMillis() - pendingTouchTime)*1000000L);
+            }
+        }
+        pendingTouchTime = 0;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                int index = event.getActionIndex();
+                press(event.getPointerId(index), keyAt(event.getX(index), event.getY(index)), event.getEventTime());
+                return true;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
+                release(event.getPointerId(event.getActionIndex()), event.getEventTime(), true);
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                for (int id = 0; id < MAX_POINTERS; ++id) {
+                    release(id, event.getEventTime(), false);
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void press(int pointerId, int key, long eventTime) {
+        if (pointerId >= MAX_POINTERS || key < 0) {
+            return;
+        }
+        pressedKeys[pointerId] = key;
+        downTimes[pointerId] = eventTime;
+        invalidateKey(key, eventTime);
+        if (keys[key].repeatable) {
+            removeCallbacks(repeater);
+            repeatingKey = key;
+            if (listener != null) {
+                listener.onKey(keys[key].codes[0]);
+            }
+            postDelayed(repeater, REPEAT_START_DELAY);
+        }
+    }
+
+    /* lifts the pointer's key, reporting it unless the gesture was cancelled */
+    private void release(int pointerId, long eventTime, boolean report) {
+        if (pointerId >= MAX_POINTERS || pressedKeys[pointerId] < 0) {
+            return;
+        }
+        int key = pressedKeys[pointerId];
+        pressedKeys[pointerId] = -1;
+        invalidateKey(key, eventTime);
+        if (key == repeatingKey) {
+            removeCallbacks(repeater);
+            repeatingKey = -1;
+        }
+        if (report && listener != null) {
+            int code = keys[key].codes[0];
+            if (keys[key].codes.length > 1) {
+                code = multiTap(key, eventTime);
+            } else {
+                lastTapKey = -1;
+            }
+            if (!keys[key].repeatable) {
+                listener.onKey(code);
+            }
+            // the event times are uptimeMillis(), the pipeline works in elapsedRealtime()
+            long elapsed = eventTime + SystemClock.elapsedRealtime() - SystemClock.uptimeMillis();
+            listener.onKeyTiming(code, eventTime - downTimes[pointerId], elapsed);
+        }
+    }
+
+    /* Returns the code a tap on the multi-tap key sends: the next one if the key was tapped last
+     * and recently enough, after deleting the character of the previous tap, otherwise the first.
+     */
+    private int multiTap(int key, long eventTime) {
+        int[] codes = keys[key].codes;
+        if (key == lastTapKey && eventTime - lastTapTime < MULTI_TAP_INTERVAL) {
+            tapIndex = (tapIndex + 1) % codes.length;
+            listener.onKey(Keyboard.KEYCODE_DELETE);
+        } else {
+            tapIndex = 0;
+        }
+        lastTapKey = key;
+        lastTapTime = eventTime;
+        return codes[tapIndex];
+    }
+
+    /* the index of the key under the point, or -1 */
+    private int keyAt(float x, float y) {
+        int kx = (int)x - getPaddingLeft();
+        int ky = (int)y - getPaddingTop();
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i].isInside(kx, ky)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void invalidateKey(int key, long eventTime) {
+        if (pendingTouchTime == 0) {
+            pendingTouchTime = eventTime;
+        }
+        keyRect(keys[key], dirty);
+        invalidate(dirty);
+    }
+
+    private void keyRect(Keyboard.Key key, Rect rect) {
+        int left = getPaddingLeft() + key.x;
+        int top = getPaddingTop() + key.y;
+        rect.set(left + keyGap, top + keyGap, left + key.width - keyGap, top + key.height - keyGap);
+    }
+
+    /* Draws every key with its label into a new layer. The keyboard is opaque, so the layer does
+     * without an alpha channel and takes half the memory.
+     */
+    private Bitmap buildLayer(boolean shifted) {
+        Bitmap bitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawPaint(backgroundPaint);
+        Rect rect = new Rect();
+        for (Keyboard.Key key : keys) {
+            keyRect(key, rect);
+            canvas.drawRect(rect, keyPaint);
+            if (key.label == null) {
+                continue;
+            }
+            String label = key.label.toString();
+            if (shifted && label.length() == 1 && Character.isLetter(label.charAt(0))) {
+                label = label.toUpperCase();
+            }
+            labelPaint.setTextSize(label.length() > 1 ? longLabelSize : labelSize);
+            float baseline = rect.exactCenterY() - (labelPaint.descent() + labelPaint.ascent())/2;
+            canvas.drawText(label, rect.exactCenterX(), baseline, labelPaint);
+        }
+        return bitmap;
+    }
+
+    /* drops the layers, they are rebuilt on the next frame; a display list may still hold them */
+    private void releaseLayers() {
+        layer = null;
+        shiftedLayer = null;
+    }
+}
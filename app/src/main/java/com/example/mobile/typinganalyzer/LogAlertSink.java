@@ -0,0 +1,19 @@
+package com.example.mobile.typinganalyzer;
+
+import android.util.Log;
+
+/* Writes the threshold alerts to the log. The word scores are left out, the ScoreTraceSink of
+ * debug builds logs those.
+ */
+public class LogAlertSink implements AlertSink {
+    private static final String TAG = "alerts";
+
+    @Override
+    public void onWordScored(double score, boolean accepted) {
+    }
+
+    @Override
+    public void onThresholdExceeded(String scoreName, double score, double threshold) {
+        Log.w(TAG, scoreName + " " + score + " is over " + threshold);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.mobile.typinganalyzer;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.support.v4.app.NotificationCompat;
+
+/* Tells the user about a threshold alert with a notification instead of a toast. Each score has
+ * one notification, which a later alert of the same score replaces.
+ */
+public class NotificationAlertSink implements AlertSink {
+    private static final int SCORE_NOTIFICATION = 1;
+    private static final int KEYSTROKE_NOTIFICATION = 2;
+
+    private final Context context;
+    private final NotificationManager notifications;
+
+    public NotificationAlertSink(Context context) {
+        this.context = context;
+        notifications = (NotificationManager)context.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    @Override
+    public void onWordScored(double score, boolean accepted) {
+    }
+
+    @Override
+    public void onThresholdExceeded(String scoreName, double score, double threshold) {
+        boolean keystroke = AnalyzerCore.KEYSTROKE_SCORE_ID.equals(scoreName);
+        String text = context.getString(keystroke ? R.string.alert_keystroke_score : R.string.alert_word_score, score, threshold);
+        Notification notification = new NotificationCompat.Builder(context)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(context.getString(R.string.alert_title))
+                .setContentText(text)
+                .setAutoCancel(true)
+                .build();
+        notifications.notify(keystroke ? KEYSTROKE_NOTIFICATION : SCORE_NOTIFICATION, notification);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.mobile.typinganalyzer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/* The StateStore of the keyboard. The scores live in SharedPreferences, as strings like they always
+ * have, and are handed over with apply() so a flush never waits on the disk. The digraph model is
+ * a file in the app's files directory. Both writes are timed into the Metrics.
+ */
+public class PreferencesStateStore implements StateStore {
+    private static final String DIGRAPH_FILE = "digraph.bin";
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private SharedPreferences.Editor editor;
+    private final LatencyHistogram applyTimes;
+    private final LatencyHistogram digraphSaveTimes;
+
+    public PreferencesStateStore(Context context, Metrics metrics) {
+        this.context = context;
+        prefs = context.getSharedPreferences(context.getString(R.string.prefs_key), Context.MODE_PRIVATE);
+        applyTimes = metrics.histogram("prefs_apply");
+        digraphSaveTimes = metrics.histogram("digraph_save");
+    }
+
+    @Override
+    public double loadScore(String name) {
+        return Double.valueOf(prefs.getString(name, "0"));
+    }
+
+    @Override
+    public void saveScore(String name, double value) {
+        if (editor == null) {
+            editor = prefs.edit();
+        }
+        editor.putString(name, String.valueOf(value));
+    }
+
+    @Override
+    public void commit() {
+        if (editor != null) {
+            long start = System.nanoTime();
+            editor.apply();
+            editor = null;
+            applyTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean loadDigraphs(DigraphModel model) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(context.getFilesDir(), DIGRAPH_FILE))));
+            try {
+                model.readFrom(in);
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // nothing learned yet
+        } catch (IOException e) {
+            Log.w("digraph", "discarding unreadable digraph model", e);
+        }
+        return false;
+    }
+
+    /* writes the model to a temporary file first so a crash never leaves half a model behind */
+    @Override
+    public void saveDigraphs(DigraphModel model) {
+        long start = System.nanoTime();
+        File file = new File(context.getFilesDir(), DIGRAPH_FILE);
+        File tmp = new File(context.getFilesDir(), DIGRAPH_FILE + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                model.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("cannot rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w("digraph", "cannot save the digraph model", e);
+        }
+        digraphSaveTimes.record(System.nanoTime() - start);
+    }
+}
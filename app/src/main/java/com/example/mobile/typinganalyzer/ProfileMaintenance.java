@@ -0,0 +1,222 @@
+package com.example.mobile.typinganalyzer;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Keeps the profile table from growing forever. Run by the analysis worker while the keyboard is
+ * idle, at most once per AnalyzerConfig.maintenanceInterval, it
+ *
+ *  - prunes the profiles that have not been written for a long time: those below countThreshold
+ *    after pruneColdAfter (mostly typos and words typed once), all of them after pruneAfter,
+ *  - scales the counts above maxProfileCount down to half of it (WordProfile.compact()),
+ *  - and hands the free pages back to the file system with an incremental vacuum.
+ *
+ * Everything happens in small batches, each its own transaction, and between batches the run stops
+ * once the time budget is used up or the StopSignal says typing has resumed. A run that stopped
+ * early simply starts over next time; every step only finds what is left to do. The run only
+ * counts as done, and the interval only starts again, once all steps are through.
+ *
+ * New databases are switched to incremental auto-vacuum as they are created
+ * (TimeProfileDbHelper.onOpen()). Older ones have to be switched once, which takes a full VACUUM
+ * that can neither be split up nor stopped. Runs leave it for when the device is charging, and
+ * until it has happened they do not count as done. It runs in place of the incremental vacuum,
+ * on the worker, where no flush can be waiting on it; keys typed meanwhile wait in the queue.
+ *
+ * The profiles must be flushed before a run, and the cached ones dropped after it.
+ */
+public class ProfileMaintenance {
+    /* tells a run to stop early */
+    public interface StopSignal {
+        boolean shouldStop();
+    }
+
+    private static final String LAST_RUN_KEY = "last_maintenance";
+    private static final int PRUNE_BATCH = 256;
+    private static final int COMPACT_BATCH = 64;
+    private static final int VACUUM_PAGES = 64;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final String TABLE = TimeProfileContract.TimeProfile.TABLE_NAME;
+    private static final String SQL_PRUNE =
+            "DELETE FROM " + TABLE + " WHERE " + TimeProfileContract.TimeProfile._ID + " IN (SELECT " +
+                    TimeProfileContract.TimeProfile._ID + " FROM " + TABLE + " WHERE (" +
+                    TimeProfileContract.TimeProfile.C_COUNT + " < ? AND " +
+                    TimeProfileContract.TimeProfile.C_LAST_USED + " < ?) OR " +
+                    TimeProfileContract.TimeProfile.C_LAST_USED + " < ? LIMIT " + PRUNE_BATCH + ")";
+    private static final String[] COMPACT_PROJECTION = {
+            TimeProfileContract.TimeProfile._ID,
+            TimeProfileContract.TimeProfile.C_COUNT,
+            TimeProfileContract.TimeProfile.C_TIMINGS
+    };
+
+    private final Context context;
+    private final TimeProfileDbHelper dbHelper;
+    private final AnalyzerConfig config;
+    private final SharedPreferences prefs;
+    private final LatencyHistogram runTimes;
+    private final AtomicLong pruned;
+    private final AtomicLong compacted;
+
+    public ProfileMaintenance(Context context, TimeProfileDbHelper dbHelper, AnalyzerConfig config, Metrics metrics) {
+        this.context = context;
+        this.dbHelper = dbHelper;
+        this.config = config;
+        prefs = context.getSharedPreferences(context.getString(R.string.prefs_key), Context.MODE_PRIVATE);
+        runTimes = metrics.histogram("maintenance");
+        pruned = metrics.counter("maintenance_pruned");
+        compacted = metrics.counter("maintenance_compacted");
+    }
+
+    /* true if the last complete run is an interval ago, by the wall clock (ms) */
+    public boolean isDue(long now) {
+        long last = prefs.getLong(LAST_RUN_KEY, 0);
+        // also if the clock was set back
+        return now - last >= config.maintenanceInterval || now < last;
+    }
+
+    /* Runs the maintenance until it is done, the budget is used up or stop says so. Returns true
+     * if it got through all of it.
+     */
+    public boolean run(StopSignal stop) {
+        long start = SystemClock.elapsedRealtime();
+        long deadline = start + config.maintenanceBudget;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long startNanos = System.nanoTime();
+        boolean done = false;
+        try {
+            done = prune(db, deadline, stop)
+                    && compact(db, deadline, stop)
+                    && vacuum(db, deadline, stop);
+        } finally {
+            runTimes.record(System.nanoTime() - startNanos);
+        }
+        if (done) {
+            prefs.edit().putLong(LAST_RUN_KEY, System.currentTimeMillis()).apply();
+        }
+        Log.i("maintenance", (done ? "done" : "stopped") + " after " + (SystemClock.elapsedRealtime() - start) +
+                " ms, " + pruned.get() + " pruned, " + compacted.get() + " compacted so far");
+        return done;
+    }
+
+    private boolean prune(SQLiteDatabase db, long deadline, StopSignal stop) {
+        long now = System.currentTimeMillis();
+        long coldBefore = (now - config.pruneColdAfter)/1000;
+        // last_used is never negative, so this prunes nothing when pruneAfter is 0
+        long staleBefore = config.pruneAfter > 0 ? (now - config.pruneAfter)/1000 : -1;
+        SQLiteStatement delete = db.compileStatement(SQL_PRUNE);
+        try {
+            delete.bindLong(1, config.countThreshold);
+            delete.bindLong(2, coldBefore);
+            delete.bindLong(3, staleBefore);
+            while (true) {
+                if (shouldStop(deadline, stop)) {
+                    return false;
+                }
+                int n;
+                db.beginTransaction();
+                try {
+                    n = delete.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (n == 0) {
+                    return true;
+                }
+                pruned.addAndGet(n);
+            }
+        } finally {
+            delete.close();
+        }
+    }
+
+    private boolean compact(SQLiteDatabase db, long deadline, StopSignal stop) {
+        int maxCount = config.maxProfileCount;
+        String[] selectionArgs = {String.valueOf(maxCount)};
+        SQLiteStatement rewrite = db.compileStatement(TimeProfileContract.SQL_REWRITE_ENTRY);
+        try {
+            while (true) {
+                if (shouldStop(deadline, stop)) {
+                    return false;
+                }
+                int n = 0;
+                db.beginTransaction();
+                try {
+                    Cursor cursor = db.query(TABLE, COMPACT_PROJECTION, TimeProfileContract.TimeProfile.C_COUNT + " > ?",
+                            selectionArgs, null, null, null, String.valueOf(COMPACT_BATCH));
+                    try {
+                        while (cursor.moveToNext()) {
+                            WordProfile profile = TimingCodec.decodeProfile(cursor.getLong(0), cursor.getInt(1), cursor.getBlob(2));
+                            profile.compact(maxCount/2);
+                            rewrite.bindLong(1, profile.count);
+                            rewrite.bindBlob(2, TimingCodec.encode(profile, null));
+                            rewrite.bindLong(3, profile.id);
+                            rewrite.executeUpdateDelete();
+                            n++;
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (n == 0) {
+                    return true;
+                }
+                compacted.addAndGet(n);
+            }
+        } finally {
+            rewrite.close();
+        }
+    }
+
+    private boolean vacuum(SQLiteDatabase db, long deadline, StopSignal stop) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            if (!isCharging() || shouldStop(deadline, stop)) {
+                return false;
+            }
+            // only takes effect with a full VACUUM, which also frees every page there is
+            long start = SystemClock.elapsedRealtime();
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            Log.i("maintenance", "switched to incremental vacuum in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            return true;
+        }
+        while (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) > 0) {
+            if (shouldStop(deadline, stop)) {
+                return false;
+            }
+            // the pages are freed while the statement is stepped through
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // nothing to read
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return true;
+    }
+
+    /* true if the device is plugged in, by the last battery broadcast */
+    private boolean isCharging() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private static boolean shouldStop(long deadline, StopSignal stop) {
+        return stop.shouldStop() || SystemClock.elapsedRealtime() >= deadline;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.mobile.typinganalyzer;
+
+import android.util.Log;
+
+/* Logs every scored word and every alert as it happens, before any coalescing. It runs on the
+ * analysis thread, so it is only installed in debug builds.
+ */
+public class ScoreTraceSink implements AlertSink {
+    private static final String TAG = "score";
+
+    @Override
+    public void onWordScored(double score, boolean accepted) {
+        Log.d(TAG, (accepted ? "accepted " : "rejected ") + score);
+    }
+
+    @Override
+    public void onThresholdExceeded(String scoreName, double score, double threshold) {
+        Log.d(TAG, scoreName + " " + score + " is over " + threshold);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.mobile.typinganalyzer;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/* The ProfileStore of the keyboard, backed by the profile table of TimeProfileDbHelper. A batch is
+ * one transaction, written through statements that are compiled once and reused. Every query,
+ * insert, update and commit is timed into the Metrics.
+ */
+public class SqliteProfileStore implements ProfileStore {
+    private static final String[] PROJECTION = {
+            TimeProfileContract.TimeProfile._ID,
+            TimeProfileContract.TimeProfile.C_COUNT,
+            TimeProfileContract.TimeProfile.C_TIMINGS
+    };
+    private static final String SELECTION = TimeProfileContract.TimeProfile.C_PARTITION + " = ? AND "
+            + TimeProfileContract.TimeProfile.C_WORD + " = ?";
+    // words up to this length get a reusable encode buffer
+    private static final int MAX_BUFFERED_LENGTH = 32;
+
+    private final TimeProfileDbHelper dbHelper;
+    private final String[] selectionArgs = new String[2];
+    // encode buffers indexed by word length, since the blob of a word is always the same size
+    private final byte[][] blobBuffers = new byte[MAX_BUFFERED_LENGTH + 1][];
+    private SQLiteDatabase db;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement updateStatement;
+    private final LatencyHistogram queryTimes;
+    private final LatencyHistogram insertTimes;
+    private final LatencyHistogram updateTimes;
+    private final LatencyHistogram commitTimes;
+
+    public SqliteProfileStore(TimeProfileDbHelper dbHelper, Metrics metrics) {
+        this.dbHelper = dbHelper;
+        queryTimes = metrics.histogram("sqlite_query");
+        insertTimes = metrics.histogram("sqlite_insert");
+        updateTimes = metrics.histogram("sqlite_update");
+        commitTimes = metrics.histogram("sqlite_commit");
+    }
+
+    @Override
+    public WordProfile load(String partition, String word) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        selectionArgs[0] = partition;
+        selectionArgs[1] = word;
+        Cursor cursor = db.query(TimeProfileContract.TimeProfile.TABLE_NAME, PROJECTION, SELECTION, selectionArgs, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return TimingCodec.decodeProfile(cursor.getLong(0), cursor.getInt(1), cursor.getBlob(2));
+        } finally {
+            cursor.close();
+            queryTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void beginWrite() {
+        db = dbHelper.getWritableDatabase();
+        if (insertStatement == null) {
+            insertStatement = db.compileStatement(TimeProfileContract.SQL_INSERT_ENTRY);
+            updateStatement = db.compileStatement(TimeProfileContract.SQL_UPDATE_ENTRY);
+        }
+        db.beginTransaction();
+    }
+
+    @Override
+    public void write(String partition, String word, WordProfile profile) {
+        long start = System.nanoTime();
+        byte[] blob = encode(word.length(), profile);
+        if (profile.id < 0) {
+            insertStatement.bindString(1, partition);
+            insertStatement.bindString(2, word);
+            insertStatement.bindLong(3, profile.count);
+            insertStatement.bindBlob(4, blob);
+            profile.id = insertStatement.executeInsert();
+            insertTimes.record(System.nanoTime() - start);
+        } else {
+            updateStatement.bindLong(1, profile.count);
+            updateStatement.bindBlob(2, blob);
+            updateStatement.bindLong(3, profile.id);
+            updateStatement.executeUpdateDelete();
+            updateTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void endWrite(boolean successful) {
+        long start = System.nanoTime();
+        try {
+            if (successful) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            db.endTransaction();
+            commitTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    private byte[] encode(int length, WordProfile profile) {
+        if (length > MAX_BUFFERED_LENGTH) {
+            return TimingCodec.encode(profile, null);
+        }
+        byte[] blob = TimingCodec.encode(profile, blobBuffers[length]);
+        blobBuffers[length] = blob;
+        return blob;
+    }
+}
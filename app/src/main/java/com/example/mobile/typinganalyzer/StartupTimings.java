@@ -0,0 +1,70 @@
+package com.example.mobile.typinganalyzer;
+
+import android.util.Log;
+
+/* Records how long each stage of bringing the keyboard up takes, so cold start and input view
+ * recreation costs can be tracked across releases. Every stage is written by one thread and read
+ * by others, so plain volatile fields are enough.
+ */
+public class StartupTimings {
+    private static final String TAG = "startup";
+
+    private volatile long serviceCreateNanos;
+    private volatile long warmUpNanos = -1;
+    private volatile int eventsQueuedDuringWarmUp;
+    private volatile long lastInputViewNanos;
+    private volatile long totalInputViewNanos;
+    private volatile int inputViewCount;
+
+    /* time spent in the service's onCreate */
+    public void recordServiceCreate(long nanos) {
+        serviceCreateNanos = nanos;
+        Log.i(TAG, "service created in " + toMicros(nanos) + " us");
+    }
+
+    /* time the worker spent building the analyzer, opening the database and the dictionary, and
+     * how many keys were typed meanwhile
+     */
+    public void recordWarmUp(long nanos, int queuedEvents) {
+        warmUpNanos = nanos;
+        eventsQueuedDuringWarmUp = queuedEvents;
+        Log.i(TAG, "analyzer warmed up in " + toMicros(nanos) + " us, " + queuedEvents + " keys queued meanwhile");
+    }
+
+    /* time spent in onCreateInputView, called on every recreation */
+    public void recordInputView(long nanos) {
+        lastInputViewNanos = nanos;
+        totalInputViewNanos += nanos;
+        inputViewCount++;
+        Log.i(TAG, "input view #" + inputViewCount + " created in " + toMicros(nanos) + " us");
+    }
+
+    public long getServiceCreateNanos() {
+        return serviceCreateNanos;
+    }
+
+    /* -1 until the warm-up has finished */
+    public long getWarmUpNanos() {
+        return warmUpNanos;
+    }
+
+    public int getEventsQueuedDuringWarmUp() {
+        return eventsQueuedDuringWarmUp;
+    }
+
+    public long getLastInputViewNanos() {
+        return lastInputViewNanos;
+    }
+
+    public long getTotalInputViewNanos() {
+        return totalInputViewNanos;
+    }
+
+    public int getInputViewCount() {
+        return inputViewCount;
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos/1000;
+    }
+}
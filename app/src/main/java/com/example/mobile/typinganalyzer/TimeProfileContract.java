@@ -5,77 +5,83 @@ import android.provider.BaseColumns;
 
 public final class TimeProfileContract {
     public static final String DATABASE_NAME = "time_profiles.db";
-    public static final int DATABASE_VERSION = 2;
+    public static final int DATABASE_VERSION = 6;
 
-    public static final String SQL_CREATE_ENTRIES =
-            "CREATE TABLE " + TimeProfile.TABLE_NAME + " (" +
-                    TimeProfile._ID + " INTEGER PRIMARY KEY," +
-                    TimeProfile.C_WORD + " TEXT NOT NULL UNIQUE," +
-                    TimeProfile.C_COUNT + " INTEGER," +
-                    " d0_avg REAL," +
-                    " d0_var REAL," +
-                    " l0_avg REAL," +
-                    " l0_var REAL," +
-                    " d1_avg REAL," +
-                    " d1_var REAL," +
-                    " l1_avg REAL," +
-                    " l1_var REAL," +
-                    " d2_avg REAL," +
-                    " d2_var REAL," +
-                    " l2_avg REAL," +
-                    " l2_var REAL," +
-                    " d3_avg REAL," +
-                    " d3_var REAL," +
-                    " l3_avg REAL," +
-                    " l3_var REAL," +
-                    " d4_avg REAL," +
-                    " d4_var REAL," +
-                    " l4_avg REAL," +
-                    " l4_var REAL," +
-                    " d5_avg REAL," +
-                    " d5_var REAL," +
-                    " l5_avg REAL," +
-                    " l5_var REAL," +
-                    " d6_avg REAL," +
-                    " d6_var REAL," +
-                    " l6_avg REAL," +
-                    " l6_var REAL," +
-                    " d7_avg REAL," +
-                    " d7_var REAL," +
-                    " l7_avg REAL," +
-                    " l7_var REAL," +
-                    " d8_avg REAL," +
-                    " d8_var REAL," +
-                    " l8_avg REAL," +
-                    " l8_var REAL," +
-                    " d9_avg REAL," +
-                    " d9_var REAL," +
-                    " l9_avg REAL," +
-                    " l9_var REAL," +
-                    " d10_avg REAL," +
-                    " d10_var REAL," +
-                    " l10_avg REAL," +
-                    " l10_var REAL," +
-                    " d11_avg REAL," +
-                    " d11_var REAL," +
-                    " l11_avg REAL," +
-                    " l11_var REAL," +
-                    " d12_avg REAL," +
-                    " d12_var REAL," +
-                    " l12_avg REAL," +
-                    " l12_var REAL," +
-                    " d13_avg REAL," +
-                    " d13_var REAL)";
-                    //" UNIQUE(" + TimeProfile.C_WORD + "))";
+    /* The timings of a word are stored as one BLOB (see TimingCodec) so words of any length fit
+     * in the same row shape. Since version 4 the BLOB holds the TimingStats sums, or the decayed
+     * averages for a decayed profile; version 3 held the averages and variances.
+     *
+     * Since version 5 every row belongs to a partition (AnalyzerCore.GLOBAL_PARTITION or one per
+     * app and input type), and the words are unique within their partition. The unique index on
+     * both is what the lookups use.
+     *
+     * Since version 6 every row records when it was last written (last_used, in seconds since the
+     * epoch), so ProfileMaintenance can prune the profiles nobody types any more.
+     */
+    public static final String SQL_CREATE_ENTRIES = createEntries(TimeProfile.TABLE_NAME);
 
     public static final String SQL_DELETE_ENTRIES =
             "DROP TABLE IF EXISTS " + TimeProfile.TABLE_NAME;
 
+    // the current time in seconds since the epoch, as SQLite sees it
+    static final String SQL_NOW = "CAST(strftime('%s', 'now') AS INTEGER)";
+
+    public static final String SQL_INSERT_ENTRY =
+            "INSERT INTO " + TimeProfile.TABLE_NAME + " (" +
+                    TimeProfile.C_PARTITION + ", " +
+                    TimeProfile.C_WORD + ", " +
+                    TimeProfile.C_COUNT + ", " +
+                    TimeProfile.C_TIMINGS + ", " +
+                    TimeProfile.C_LAST_USED + ") VALUES (?, ?, ?, ?, " + SQL_NOW + ")";
+
+    public static final String SQL_UPDATE_ENTRY =
+            "UPDATE " + TimeProfile.TABLE_NAME + " SET " +
+                    TimeProfile.C_COUNT + " = ?, " +
+                    TimeProfile.C_TIMINGS + " = ?, " +
+                    TimeProfile.C_LAST_USED + " = " + SQL_NOW + " WHERE " +
+                    TimeProfile._ID + " = ?";
+
+    // rewrites a profile without counting it as used, for migrations and maintenance
+    public static final String SQL_REWRITE_ENTRY =
+            "UPDATE " + TimeProfile.TABLE_NAME + " SET " +
+                    TimeProfile.C_COUNT + " = ?, " +
+                    TimeProfile.C_TIMINGS + " = ? WHERE " +
+                    TimeProfile._ID + " = ?";
+
     private TimeProfileContract() {}
 
+    static String createEntries(String table) {
+        return "CREATE TABLE " + table + " (" +
+                TimeProfile._ID + " INTEGER PRIMARY KEY," +
+                TimeProfile.C_PARTITION + " TEXT NOT NULL DEFAULT ''," +
+                TimeProfile.C_WORD + " TEXT NOT NULL," +
+                TimeProfile.C_COUNT + " INTEGER," +
+                TimeProfile.C_TIMINGS + " BLOB NOT NULL," +
+                TimeProfile.C_LAST_USED + " INTEGER NOT NULL DEFAULT 0," +
+                "UNIQUE (" + TimeProfile.C_PARTITION + ", " + TimeProfile.C_WORD + "))";
+    }
+
     public static class TimeProfile implements BaseColumns {
         public static final String TABLE_NAME = "profile";
+        public static final String C_PARTITION = "partition_key";
         public static final String C_WORD = "word";
         public static final String C_COUNT = "count";
+        public static final String C_TIMINGS = "timings";
+        public static final String C_LAST_USED = "last_used";
+    }
+
+    /* The version 2 layout, one REAL column per average and variance (d0_avg ... d13_var). Only
+     * needed to migrate old databases.
+     */
+    static final class LegacyTimeProfile {
+        static final String TABLE_NAME = "profile_v2";
+        static final int MAX_WORD_LENGTH = 14;
+
+        private LegacyTimeProfile() {}
+
+        /* name of the column holding the i-th value of the WordProfile timings */
+        static String column(int i) {
+            return ((i>>1)%2 == 0 ? "d" : "l") + String.valueOf(i>>2) + (i%2 == 0 ? "_avg" : "_var");
+        }
     }
 }
@@ -1,30 +1,231 @@
 package com.example.mobile.typinganalyzer;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.IOException;
 
 public class TimeProfileDbHelper extends SQLiteOpenHelper {
+    // the database was created by this open, only touched while it opens
+    private boolean created;
+
     public TimeProfileDbHelper(Context context) {
         super(context, TimeProfileContract.DATABASE_NAME, null, TimeProfileContract.DATABASE_VERSION);
-
+        // write-ahead logging turns the batched flushes into appends instead of journal rewrites
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     public void onCreate(SQLiteDatabase db) {
         //Toast.makeText(this.context, "creating db helper", Toast.LENGTH_SHORT).show();
         db.execSQL(TimeProfileContract.SQL_CREATE_ENTRIES);
+        created = true;
     }
 
+    /* A new database is switched to incremental auto-vacuum (see ProfileMaintenance) right after
+     * it is created. SQLite only takes the mode with a VACUUM once there are tables, and Android
+     * creates one of its own before onCreate(), but while the database is still empty the VACUUM
+     * costs next to nothing. It cannot run in onCreate(), which is inside a transaction.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (created && !db.isReadOnly()) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+        created = false;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /* Migrates the data one version at a time. Only version 1 databases, which predate the
+     * current word profile layout, are thrown away. This already runs inside a transaction.
+     */
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            Log.i("Deleting", "deleting the database");
+            db.execSQL(TimeProfileContract.SQL_DELETE_ENTRIES);
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < 3) {
+            // goes straight to the current layout
+            migrateWideColumnsToBlob(db);
+        } else {
+            if (oldVersion < 4) {
+                migrateAvgVarToSums(db);
+            }
+            if (oldVersion < 5) {
+                // copies the rows into the current layout
+                migrateToPartitions(db);
+            } else if (oldVersion < 6) {
+                db.execSQL("ALTER TABLE " + TimeProfileContract.TimeProfile.TABLE_NAME + " ADD COLUMN " +
+                        TimeProfileContract.TimeProfile.C_LAST_USED + " INTEGER NOT NULL DEFAULT 0");
+            }
+        }
+        if (oldVersion < 6) {
+            // nobody knows when the older rows were used, so they start out as used now
+            db.execSQL("UPDATE " + TimeProfileContract.TimeProfile.TABLE_NAME + " SET " +
+                    TimeProfileContract.TimeProfile.C_LAST_USED + " = " + TimeProfileContract.SQL_NOW);
+        }
+    }
+
+    /* there is no way to read a newer layout, so start over */
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.i("Deleting", "deleting the database");
         db.execSQL(TimeProfileContract.SQL_DELETE_ENTRIES);
         onCreate(db);
     }
 
-    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+    /* Streams every profile into the snapshot. The cursor only holds one window of rows at a
+     * time. Returns the number of profiles written.
+     */
+    public int exportProfiles(ProfileSnapshot.Writer snapshot) throws IOException {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TimeProfileContract.TimeProfile.TABLE_NAME, new String[] {
+                TimeProfileContract.TimeProfile.C_PARTITION,
+                TimeProfileContract.TimeProfile.C_WORD,
+                TimeProfileContract.TimeProfile.C_COUNT,
+                TimeProfileContract.TimeProfile.C_TIMINGS}, null, null, null, null, null);
+        int n = 0;
+        try {
+            while (cursor.moveToNext()) {
+                snapshot.write(cursor.getString(0), cursor.getString(1), cursor.getInt(2), cursor.getBlob(3));
+                n++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return n;
+    }
+
+    /* Replaces all profiles with the ones in the snapshot, in a single transaction that is only
+     * committed once the snapshot has been read to the end and its checksum matched; otherwise
+     * nothing changes. Average/variance blobs of older snapshots are converted like in the
+     * migration. Returns the number of profiles imported.
+     */
+    public int importProfiles(ProfileSnapshot.Reader snapshot) throws IOException {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(TimeProfileContract.SQL_INSERT_ENTRY);
+        db.beginTransaction();
+        try {
+            db.delete(TimeProfileContract.TimeProfile.TABLE_NAME, null, null);
+            while (snapshot.next()) {
+                byte[] blob = snapshot.blob();
+                if (blob[0] == TimingCodec.FORMAT_AVG_VAR) {
+                    blob = TimingCodec.encode(TimingStats.fromTimings(TimingCodec.decodeAvgVar(blob), snapshot.count()), null);
+                } else if (blob[0] != TimingCodec.FORMAT_SUMS && blob[0] != TimingCodec.FORMAT_DECAYED) {
+                    throw new IOException("unknown timings format " + blob[0] + " for " + snapshot.word());
+                }
+                insert.bindString(1, snapshot.partition());
+                insert.bindString(2, snapshot.word());
+                insert.bindLong(3, snapshot.count());
+                insert.bindBlob(4, blob);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        return snapshot.getRecordCount();
+    }
+
+    /* Version 2 -> 6: packs the d*_avg/d*_var/l*_avg/l*_var columns of each row into the timings
+     * BLOB, converted to TimingStats sums, keeping the row ids. All rows go to the global partition.
+     */
+    private void migrateWideColumnsToBlob(SQLiteDatabase db) {
+        String legacyTable = TimeProfileContract.LegacyTimeProfile.TABLE_NAME;
+        db.execSQL("ALTER TABLE " + TimeProfileContract.TimeProfile.TABLE_NAME + " RENAME TO " + legacyTable);
+        db.execSQL(TimeProfileContract.SQL_CREATE_ENTRIES);
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TimeProfileContract.TimeProfile.TABLE_NAME + " (" +
+                TimeProfileContract.TimeProfile._ID + ", " +
+                TimeProfileContract.TimeProfile.C_WORD + ", " +
+                TimeProfileContract.TimeProfile.C_COUNT + ", " +
+                TimeProfileContract.TimeProfile.C_TIMINGS + ") VALUES (?, ?, ?, ?)");
+        Cursor cursor = db.query(legacyTable, null, null, null, null, null, null);
+        try {
+            int idIndex = cursor.getColumnIndexOrThrow(TimeProfileContract.TimeProfile._ID);
+            int wordIndex = cursor.getColumnIndexOrThrow(TimeProfileContract.TimeProfile.C_WORD);
+            int countIndex = cursor.getColumnIndexOrThrow(TimeProfileContract.TimeProfile.C_COUNT);
+            int[] timingIndex = new int[WordProfile.timingsLength(TimeProfileContract.LegacyTimeProfile.MAX_WORD_LENGTH)];
+            for (int i = 0; i < timingIndex.length; ++i) {
+                timingIndex[i] = cursor.getColumnIndexOrThrow(TimeProfileContract.LegacyTimeProfile.column(i));
+            }
+            while (cursor.moveToNext()) {
+                String word = cursor.getString(wordIndex);
+                int count = cursor.getInt(countIndex);
+                double[] timings = new double[WordProfile.timingsLength(word.length())];
+                for (int i = 0; i < timings.length; ++i) {
+                    timings[i] = cursor.getDouble(timingIndex[i]);
+                }
+                insert.clearBindings();
+                insert.bindLong(1, cursor.getLong(idIndex));
+                insert.bindString(2, word);
+                insert.bindLong(3, count);
+                insert.bindBlob(4, TimingCodec.encode(TimingStats.fromTimings(timings, count), null));
+                insert.executeInsert();
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+        db.execSQL("DROP TABLE " + legacyTable);
+    }
+
+    /* Version 4 -> 6: moves all rows into the global partition. The word alone is no longer
+     * unique, which SQLite can only change by copying the rows into a new table.
+     */
+    private void migrateToPartitions(SQLiteDatabase db) {
+        String table = TimeProfileContract.TimeProfile.TABLE_NAME;
+        String oldTable = table + "_v4";
+        String columns = TimeProfileContract.TimeProfile._ID + ", " +
+                TimeProfileContract.TimeProfile.C_WORD + ", " +
+                TimeProfileContract.TimeProfile.C_COUNT + ", " +
+                TimeProfileContract.TimeProfile.C_TIMINGS;
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + oldTable);
+        db.execSQL(TimeProfileContract.SQL_CREATE_ENTRIES);
+        db.execSQL("INSERT INTO " + table + " (" + columns + ") SELECT " + columns + " FROM " + oldTable);
+        db.execSQL("DROP TABLE " + oldTable);
+    }
+
+    /* Version 3 -> 4: rewrites the average/variance BLOB of each row as TimingStats sums. The
+     * cursor may see rows again that it has already rewritten when it refills its window, so those
+     * are skipped.
+     */
+    private void migrateAvgVarToSums(SQLiteDatabase db) {
+        SQLiteStatement update = db.compileStatement(TimeProfileContract.SQL_REWRITE_ENTRY);
+        Cursor cursor = db.query(TimeProfileContract.TimeProfile.TABLE_NAME, new String[] {
+                TimeProfileContract.TimeProfile._ID,
+                TimeProfileContract.TimeProfile.C_COUNT,
+                TimeProfileContract.TimeProfile.C_TIMINGS}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                byte[] blob = cursor.getBlob(2);
+                if (blob[0] != TimingCodec.FORMAT_AVG_VAR) {
+                    continue;
+                }
+                int count = cursor.getInt(1);
+                double[] timings = TimingCodec.decodeAvgVar(blob);
+                update.clearBindings();
+                update.bindLong(1, count);
+                update.bindBlob(2, TimingCodec.encode(TimingStats.fromTimings(timings, count), null));
+                update.bindLong(3, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
     }
 }
@@ -1,42 +1,81 @@
 package com.example.mobile.typinganalyzer;
 
 import android.inputmethodservice.InputMethodService;
+import android.os.Build;
+import android.text.InputType;
 import android.inputmethodservice.Keyboard;
-import android.inputmethodservice.KeyboardView;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import static android.os.SystemClock.elapsedRealtime;
 
 
-public class TypingAnalyzerKeyboard extends InputMethodService implements KeyboardView.OnKeyboardActionListener {
+public class TypingAnalyzerKeyboard extends InputMethodService implements KeyboardRenderView.OnKeyActionListener {
 
-    private KeyboardView kv;
+    private KeyboardRenderView kv;
     private Keyboard keyboard;
-    private KeyboardAnalyzer analyzer;
-    private long timer;
+    private AnalysisPipeline pipeline;
+    private final StartupTimings startupTimings = new StartupTimings();
+    private final Metrics metrics = new Metrics();
+    private static final String METRICS_SNAPSHOT = "metrics.txt";
+    private static final String PROFILE_SNAPSHOT = "profiles.snap";
+    // EditorInfo.IME_FLAG_NO_PERSONALIZED_LEARNING, which is only in the API 26 SDK
+    private static final int IME_FLAG_NO_PERSONALIZED_LEARNING = 0x1000000;
+    private static final long SNAPSHOT_TIMEOUT_SECONDS = 30;
 
     private boolean caps = false;
 
+    /* The analyzer, its caches and the database belong to the service rather than the input view,
+     * which Android recreates on rotation, theme changes and IME switches. They are built on the
+     * pipeline's worker thread so this returns immediately.
+     */
+    @Override
+    public void onCreate() {
+        long start = System.nanoTime();
+        super.onCreate();
+        pipeline = new AnalysisPipeline(this.getApplicationContext(), startupTimings, metrics);
+        pipeline.start();
+        startupTimings.recordServiceCreate(System.nanoTime() - start);
+    }
+
     @Override
     public View onCreateInputView() {
+        long start = System.nanoTime();
         super.onCreateInputView();
-        kv = (KeyboardView)getLayoutInflater().inflate(R.layout.keyboard, null);
+        kv = (KeyboardRenderView)getLayoutInflater().inflate(R.layout.keyboard, null);
         keyboard = new Keyboard(this, R.xml.qwerty);
         kv.setKeyboard(keyboard);
-        kv.setOnKeyboardActionListener(this);
-        analyzer = new KeyboardAnalyzer(this.getApplicationContext());
+        kv.setShifted(caps);
+        kv.setOnKeyActionListener(this);
+        kv.setMetrics(metrics);
+        startupTimings.recordInputView(System.nanoTime() - start);
         //Log.i("create", "creating keyboard");
         //Toast.makeText(this, "creating keyboard", Toast.LENGTH_SHORT).show();
         return kv;
     }
 
     @Override
-    public void onKey(int primaryCode, int[] keyCodes) {
+    public void onKey(int primaryCode) {
         InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return;
+        }
         switch(primaryCode){
             case Keyboard.KEYCODE_DELETE :
                 ic.deleteSurroundingText(1, 0);
@@ -44,7 +83,7 @@ public class TypingAnalyzerKeyboard extends InputMethodService implements Keyboa
             case Keyboard.KEYCODE_SHIFT:
                 caps = !caps;
                 keyboard.setShifted(caps);
-                kv.invalidateAllKeys();
+                kv.setShifted(caps);
                 break;
             case Keyboard.KEYCODE_DONE:
                 ic.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_ENTER));
@@ -58,34 +97,153 @@ public class TypingAnalyzerKeyboard extends InputMethodService implements Keyboa
         }
     }
 
+    /* the press and release times come from the touch events, see KeyboardRenderView */
     @Override
-    public void onPress(int primaryCode) {
-        timer = elapsedRealtime();
+    public void onKeyTiming(int primaryCode, long duration, long eventTime) {
+        pipeline.submit(primaryCode, duration, eventTime);
     }
 
+    /* Every app and kind of input field gets its own profiles, so that chatting, searching and
+     * typing passwords do not blur one model.
+     */
     @Override
-    public void onRelease(int primaryCode) {
-        //Toast.makeText(this, String.valueOf(primaryCode), Toast.LENGTH_SHORT);
-        analyzer.push_char(primaryCode, elapsedRealtime() - timer);
+    public void onStartInput(EditorInfo attribute, boolean restarting) {
+        super.onStartInput(attribute, restarting);
+        pipeline.setPartition(partitionOf(attribute), isPrivate(attribute), elapsedRealtime());
     }
 
-    @Override
-    public void onText(CharSequence text) {
+    /* the profile partition of an input field: the app, the input class and its variation */
+    static String partitionOf(EditorInfo attribute) {
+        if (attribute == null || attribute.packageName == null) {
+            return AnalyzerCore.GLOBAL_PARTITION;
+        }
+        return attribute.packageName + "/" + (attribute.inputType & InputType.TYPE_MASK_CLASS)
+                + "/" + (attribute.inputType & InputType.TYPE_MASK_VARIATION);
     }
 
-    @Override
-    public void swipeDown() {
+    /* Password fields and fields that ask for no personalized learning: their keys must not be
+     * kept anywhere.
+     */
+    static boolean isPrivate(EditorInfo attribute) {
+        if (attribute == null) {
+            return false;
+        }
+        if ((attribute.imeOptions & IME_FLAG_NO_PERSONALIZED_LEARNING) != 0) {
+            return true;
+        }
+        int inputClass = attribute.inputType & InputType.TYPE_MASK_CLASS;
+        int variation = attribute.inputType & InputType.TYPE_MASK_VARIATION;
+        if (inputClass == InputType.TYPE_CLASS_TEXT) {
+            return variation == InputType.TYPE_TEXT_VARIATION_PASSWORD
+                    || variation == InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD
+                    || variation == InputType.TYPE_TEXT_VARIATION_WEB_PASSWORD;
+        }
+        return inputClass == InputType.TYPE_CLASS_NUMBER && variation == InputType.TYPE_NUMBER_VARIATION_PASSWORD;
     }
 
     @Override
-    public void swipeLeft() {
+    public void onFinishInput() {
+        super.onFinishInput();
+        pipeline.requestFlush();
     }
 
     @Override
-    public void swipeRight() {
+    public void onDestroy() {
+        pipeline.shutdown();
+        exportMetrics();
+        super.onDestroy();
+    }
+
+    public StartupTimings getStartupTimings() {
+        return startupTimings;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
     }
 
+    /* Shows the metrics with
+     *     adb shell dumpsys activity service com.example.mobile.typinganalyzer/.TypingAnalyzerKeyboard
+     * Adding "export" to the command also writes them to the snapshot file, and "reset" starts the
+     * histograms over afterwards. "snapshot-export" writes the whole model to profiles.snap in the
+     * files directory and "snapshot-import" replaces the model with that file. "keylog-on" opts in
+     * to the keystroke log and "keylog-off" turns it off and deletes it.
+     */
     @Override
-    public void swipeUp() {
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        writeMetrics(writer);
+        for (String arg : args) {
+            if (arg.equals("export")) {
+                File file = exportMetrics();
+                writer.println(file != null ? "exported to " + file : "export failed");
+            } else if (arg.equals("reset")) {
+                metrics.reset();
+                writer.println("metrics reset");
+            } else if (arg.equals("snapshot-export")) {
+                File file = new File(getFilesDir(), PROFILE_SNAPSHOT);
+                writer.println(awaitSnapshot("exported", file, pipeline.exportSnapshot(file)));
+            } else if (arg.equals("keylog-on")) {
+                pipeline.setKeyLogEnabled(true);
+                writer.println("keystroke log on, password fields excluded");
+            } else if (arg.equals("keylog-off")) {
+                pipeline.setKeyLogEnabled(false);
+                writer.println("keystroke log off and deleted");
+            } else if (arg.equals("snapshot-import")) {
+                File file = new File(getFilesDir(), PROFILE_SNAPSHOT);
+                writer.println(awaitSnapshot("imported", file, pipeline.importSnapshot(file)));
+            }
+        }
+    }
+
+    /* waits for a snapshot export or import on the worker and describes how it went */
+    private String awaitSnapshot(String action, File file, Future<Integer> result) {
+        long start = System.nanoTime();
+        try {
+            int profiles = result.get(SNAPSHOT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return action + " " + profiles + " profiles, " + file + " in " + (System.nanoTime() - start)/1000000 + " ms";
+        } catch (ExecutionException e) {
+            Log.w("snapshot", "snapshot failed", e.getCause());
+            return "snapshot failed: " + e.getCause();
+        } catch (CancellationException e) {
+            return "snapshot cancelled, the keyboard is shutting down";
+        } catch (TimeoutException e) {
+            return "snapshot still running after " + SNAPSHOT_TIMEOUT_SECONDS + " s";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        }
+    }
+
+    /* Writes the metrics to the snapshot file in the files directory, replacing the last one.
+     * Returns the file, or null if it could not be written.
+     */
+    private File exportMetrics() {
+        File file = new File(getFilesDir(), METRICS_SNAPSHOT);
+        try {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            try {
+                out.println("time " + System.currentTimeMillis());
+                out.println("device " + Build.MANUFACTURER + " " + Build.MODEL + ", sdk " + Build.VERSION.SDK_INT);
+                writeMetrics(out);
+            } finally {
+                out.close();
+            }
+            return file;
+        } catch (IOException e) {
+            Log.w("metrics", "cannot export the metrics", e);
+            return null;
+        }
+    }
+
+    private void writeMetrics(PrintWriter out) {
+        out.println("startup: service " + startupTimings.getServiceCreateNanos()/1000 + " us, warm-up "
+                + startupTimings.getWarmUpNanos()/1000 + " us, " + startupTimings.getEventsQueuedDuringWarmUp()
+                + " keys queued meanwhile, " + startupTimings.getInputViewCount() + " input views, last "
+                + startupTimings.getLastInputViewNanos()/1000 + " us");
+        out.println("pipeline: " + pipeline.getProcessedCount() + " keys processed, " + pipeline.getDroppedCount()
+                + " dropped, " + pipeline.getQueueDepth() + " queued");
+        metrics.writeTo(out);
+        out.flush();
     }
 }
@@ -0,0 +1,63 @@
+package com.example.mobile.typinganalyzer.benchmark;
+
+import com.example.mobile.typinganalyzer.DictionaryIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/* Dictionary lookup of each completed word of the trace: the compiled index looked up from the
+ * typed letters, against the HashSet of lowercased Strings it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DictionaryBenchmark {
+    @Param("")
+    public String trace;
+
+    private TraceWords words;
+    private DictionaryIndex index;
+    private Set<String> wordSet;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        words = TraceWords.split(KeystrokeTrace.open(trace));
+        List<String> dictionary = KeystrokeTrace.dictionaryWords();
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        DictionaryIndex.write(dictionary, compiled);
+        // direct, like the memory-mapped asset on the device
+        ByteBuffer buffer = ByteBuffer.allocateDirect(compiled.size());
+        buffer.put(compiled.toByteArray());
+        index = DictionaryIndex.load(buffer);
+        wordSet = new HashSet<>(dictionary);
+    }
+
+    @Benchmark
+    public int indexLookup() {
+        int i = next;
+        next = i + 1 == words.size ? 0 : i + 1;
+        return index.lookup(words.letters[i], words.letters[i].length);
+    }
+
+    @Benchmark
+    public boolean hashSetLookup() {
+        int i = next;
+        next = i + 1 == words.size ? 0 : i + 1;
+        return wordSet.contains(new String(words.letters[i]).toLowerCase());
+    }
+}
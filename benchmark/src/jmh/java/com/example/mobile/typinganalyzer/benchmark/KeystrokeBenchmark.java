@@ -0,0 +1,103 @@
+package com.example.mobile.typinganalyzer.benchmark;
+
+import com.example.mobile.typinganalyzer.AlertSink;
+import com.example.mobile.typinganalyzer.AnalyzerConfig;
+import com.example.mobile.typinganalyzer.AnalyzerCore;
+import com.example.mobile.typinganalyzer.Clock;
+import com.example.mobile.typinganalyzer.DictionaryIndex;
+import com.example.mobile.typinganalyzer.InMemoryProfileStore;
+import com.example.mobile.typinganalyzer.InMemoryStateStore;
+import com.example.mobile.typinganalyzer.KeyEventRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* Cost of one key release on the analysis path: the enqueue done on the UI thread, then on the
+ * worker the drain and AnalyzerCore.push_char, with the dictionary lookup, the word and keystroke
+ * scoring and the write-behind of the real core. The profiles are kept in memory, so the database
+ * is not part of it (PersistenceBenchmark covers that). The whole trace is typed once before the
+ * measurement, so the words are scored against learned profiles. Each invocation replays the next
+ * key of the trace.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeystrokeBenchmark implements KeyEventRingBuffer.Handler, Clock, AlertSink {
+    @Param("")
+    public String trace;
+
+    private KeystrokeTrace keys;
+    private KeyEventRingBuffer queue;
+    private AnalyzerCore core;
+    private long time;
+    private int alerts;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        keys = KeystrokeTrace.open(trace);
+        queue = new KeyEventRingBuffer(256);
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        DictionaryIndex.write(KeystrokeTrace.dictionaryWords(), compiled);
+        // direct, like the memory-mapped asset on the device
+        ByteBuffer buffer = ByteBuffer.allocateDirect(compiled.size());
+        buffer.put(compiled.toByteArray());
+        core = new AnalyzerCore(new AnalyzerConfig(), this, DictionaryIndex.load(buffer),
+                new InMemoryProfileStore(), new InMemoryStateStore(), this);
+        for (int i = 0; i < keys.size; ++i) {
+            onKeyEvent(keys.codes[i], keys.durations[i], keys.eventTimes[i]);
+        }
+    }
+
+    @Benchmark
+    public int enqueue() {
+        int i = next;
+        next = i + 1 == keys.size ? 0 : i + 1;
+        boolean accepted = queue.offer(keys.codes[i], keys.durations[i], keys.eventTimes[i]);
+        // keep the queue from filling up without timing a full drain
+        if (queue.size() == queue.capacity()) {
+            queue.drain(this);
+        }
+        return accepted ? 1 : 0;
+    }
+
+    @Benchmark
+    public int keystroke() {
+        int i = next;
+        next = i + 1 == keys.size ? 0 : i + 1;
+        queue.offer(keys.codes[i], keys.durations[i], keys.eventTimes[i]);
+        queue.drain(this);
+        return alerts;
+    }
+
+    @Override
+    public void onKeyEvent(int code, long duration, long eventTime) {
+        time = eventTime;
+        core.push_char(code, duration, eventTime);
+    }
+
+    @Override
+    public long now() {
+        return time;
+    }
+
+    @Override
+    public void onWordScored(double score, boolean accepted) {
+    }
+
+    @Override
+    public void onThresholdExceeded(String scoreName, double score, double threshold) {
+        alerts++;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.mobile.typinganalyzer.benchmark;
+
+import com.example.mobile.typinganalyzer.KeystrokeLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/* Cost of logging one key to the KeystrokeLog with the segment size the keyboard uses, so the
+ * occasional mapping of a new segment is part of the average.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeystrokeLogBenchmark {
+    @Param("")
+    public String trace;
+
+    private KeystrokeTrace keys;
+    private File dir;
+    private KeystrokeLog log;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        keys = KeystrokeTrace.open(trace);
+        dir = File.createTempFile("keylog", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("cannot create " + dir);
+        }
+        // as AnalysisPipeline
+        log = new KeystrokeLog(dir, 16384, 16);
+    }
+
+    @TearDown
+    public void tearDown() {
+        log.close();
+        for (File segment : KeystrokeLog.segments(dir)) {
+            segment.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        int i = next;
+        next = i + 1 == keys.size ? 0 : i + 1;
+        log.append(keys.codes[i], keys.durations[i], keys.eventTimes[i]);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.mobile.typinganalyzer.benchmark;
+
+import com.example.mobile.typinganalyzer.replay.Keystrokes;
+import com.example.mobile.typinganalyzer.replay.SessionReader;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/* A recorded sequence of key releases as the analysis pipeline receives them. Trace files are the
+ * session files of the replay: text, one key per line with the key code, the press duration and
+ * the release time in milliseconds, separated by spaces. Lines starting with # are ignored.
+ *
+ * Without a trace file the benchmarks fall back to a synthetic trace typed from the dictionary
+ * with a fixed seed, so runs stay comparable.
+ */
+public final class KeystrokeTrace {
+    public final int[] codes;
+    public final long[] durations;
+    public final long[] eventTimes;
+    public final int size;
+
+    private KeystrokeTrace(int[] codes, long[] durations, long[] eventTimes, int size) {
+        this.codes = codes;
+        this.durations = durations;
+        this.eventTimes = eventTimes;
+        this.size = size;
+    }
+
+    /* loads the trace file, or synthesizes a trace if path is empty */
+    public static KeystrokeTrace open(String path) throws IOException {
+        if (path == null || path.isEmpty()) {
+            return synthesize(dictionaryWords(), 100000, 42);
+        }
+        return load(new FileInputStream(path));
+    }
+
+    /* reads a trace with the SessionReader of the replay, which reads the same format */
+    public static KeystrokeTrace load(InputStream stream) throws IOException {
+        Keystrokes keystrokes = new Keystrokes();
+        try {
+            new SessionReader().read(stream, keystrokes);
+        } finally {
+            stream.close();
+        }
+        int n = keystrokes.size();
+        if (n == 0) {
+            throw new IOException("empty trace");
+        }
+        int[] codes = new int[n];
+        long[] durations = new long[n];
+        long[] eventTimes = new long[n];
+        for (int i = 0; i < n; ++i) {
+            codes[i] = keystrokes.code(i);
+            durations[i] = keystrokes.duration(i);
+            eventTimes[i] = keystrokes.eventTime(i);
+        }
+        return new KeystrokeTrace(codes, durations, eventTimes, n);
+    }
+
+    /* Types words drawn with a Zipf-like bias towards the front of the list (the word list is in
+     * frequency order), with normally distributed press durations and latencies.
+     */
+    public static KeystrokeTrace synthesize(List<String> words, int keys, long seed) {
+        Random random = new Random(seed);
+        int[] codes = new int[keys];
+        long[] durations = new long[keys];
+        long[] eventTimes = new long[keys];
+        long time = 0;
+        int n = 0;
+        while (n < keys) {
+            int rank = (int)Math.min(words.size() - 1, Math.floor(Math.exp(random.nextDouble()*Math.log(words.size()))) - 1);
+            String word = words.get(rank) + " ";
+            for (int i = 0; i < word.length() && n < keys; ++i, ++n) {
+                long duration = Math.max(20, Math.round(95 + 20*random.nextGaussian()));
+                long latency = Math.max(0, Math.round(140 + 45*random.nextGaussian()));
+                time += latency + duration;
+                codes[n] = word.charAt(i);
+                durations[n] = duration;
+                eventTimes[n] = time;
+            }
+        }
+        return new KeystrokeTrace(codes, durations, eventTimes, keys);
+    }
+
+    /* the app's word list, bundled as a resource of the benchmark */
+    public static List<String> dictionaryWords() throws IOException {
+        InputStream stream = KeystrokeTrace.class.getResourceAsStream("/words.txt");
+        if (stream == null) {
+            throw new IOException("words.txt is not on the classpath");
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(stream, "US-ASCII"));
+        List<String> words = new ArrayList<>();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    words.add(line.trim());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return words;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.mobile.typinganalyzer.benchmark;
+
+import com.example.mobile.typinganalyzer.TimingCodec;
+import com.example.mobile.typinganalyzer.TimingStats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* Profile persistence against SQLite through JDBC, standing in for the Android SQLiteDatabase.
+ * The schema and statements mirror TimeProfileContract. Measures a cache miss (one profile read
+ * and decode) and a write-behind flush (a batch of profile updates in one transaction).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PersistenceBenchmark {
+    private static final String SQL_CREATE_ENTRIES =
+            "CREATE TABLE profile (_id INTEGER PRIMARY KEY, partition_key TEXT NOT NULL DEFAULT '', word TEXT NOT NULL, "
+                    + "count INTEGER, timings BLOB NOT NULL, last_used INTEGER NOT NULL DEFAULT 0, UNIQUE (partition_key, word))";
+    private static final String SQL_NOW = "CAST(strftime('%s', 'now') AS INTEGER)";
+    private static final String SQL_INSERT_ENTRY =
+            "INSERT INTO profile (word, count, timings, last_used) VALUES (?, ?, ?, " + SQL_NOW + ")";
+    private static final String SQL_UPDATE_ENTRY =
+            "UPDATE profile SET count = ?, timings = ?, last_used = " + SQL_NOW + " WHERE _id = ?";
+    private static final String SQL_SELECT_ENTRY = "SELECT _id, count, timings FROM profile WHERE partition_key = '' AND word = ?";
+
+    @Param("")
+    public String trace;
+
+    // size of one write-behind flush, as AnalyzerConfig.flushWordThreshold
+    @Param("32")
+    public int batch;
+
+    // a file rather than :memory: so the flush pays for the journal like on the device
+    @Param("file")
+    public String storage;
+
+    private Connection connection;
+    private PreparedStatement select;
+    private PreparedStatement update;
+    private List<String> words;
+    private long[] ids;
+    private long[][] sums;
+    private byte[][] blobs;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        String url = "jdbc:sqlite::memory:";
+        if ("file".equals(storage)) {
+            File file = File.createTempFile("time_profiles", ".db");
+            file.deleteOnExit();
+            url = "jdbc:sqlite:" + file.getPath();
+        }
+        connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement();
+        statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+        statement.execute("PRAGMA journal_mode=WAL");
+        statement.execute(SQL_CREATE_ENTRIES);
+        statement.close();
+
+        TraceWords traceWords = TraceWords.split(KeystrokeTrace.open(trace));
+        Map<String, long[]> unique = new LinkedHashMap<>();
+        for (int i = 0; i < traceWords.size; ++i) {
+            unique.put(new String(traceWords.letters[i]).toLowerCase(), traceWords.samples[i]);
+        }
+        words = new ArrayList<>(unique.keySet());
+        ids = new long[words.size()];
+        sums = new long[words.size()][];
+        blobs = new byte[words.size()][];
+        PreparedStatement insert = connection.prepareStatement(SQL_INSERT_ENTRY, Statement.RETURN_GENERATED_KEYS);
+        for (int i = 0; i < words.size(); ++i) {
+            sums[i] = TimingStats.initial(unique.get(words.get(i)), words.get(i).length());
+            blobs[i] = TimingCodec.encode(sums[i], null);
+            insert.setString(1, words.get(i));
+            insert.setInt(2, 1);
+            insert.setBytes(3, blobs[i]);
+            insert.executeUpdate();
+            ResultSet keys = insert.getGeneratedKeys();
+            keys.next();
+            ids[i] = keys.getLong(1);
+            keys.close();
+        }
+        insert.close();
+        select = connection.prepareStatement(SQL_SELECT_ENTRY);
+        update = connection.prepareStatement(SQL_UPDATE_ENTRY);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public long[] loadProfile() throws SQLException {
+        int i = next;
+        next = i + 1 == words.size() ? 0 : i + 1;
+        select.setString(1, words.get(i));
+        ResultSet row = select.executeQuery();
+        try {
+            row.next();
+            return TimingCodec.decode(row.getBytes(3));
+        } finally {
+            row.close();
+        }
+    }
+
+    @Benchmark
+    public int flushBatch() throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            for (int n = 0; n < batch; ++n) {
+                int i = next;
+                next = i + 1 == words.size() ? 0 : i + 1;
+                blobs[i] = TimingCodec.encode(sums[i], blobs[i]);
+                update.setInt(1, 2);
+                update.setBytes(2, blobs[i]);
+                update.setLong(3, ids[i]);
+                update.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.mobile.typinganalyzer.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* The words of a trace, split on spaces the way AnalyzerCore.push_char does, with their
+ * samples in WordBuffer order (duration, latency, duration, ...).
+ */
+final class TraceWords {
+    final char[][] letters;
+    final long[][] samples;
+    final int size;
+
+    private TraceWords(char[][] letters, long[][] samples) {
+        this.letters = letters;
+        this.samples = samples;
+        size = letters.length;
+    }
+
+    static TraceWords split(KeystrokeTrace trace) {
+        List<char[]> letters = new ArrayList<>();
+        List<long[]> samples = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        long[] timings = new long[512];
+        long previous = 0;
+        for (int i = 0; i < trace.size; ++i) {
+            int c = trace.codes[i];
+            if (c == ' ' || c == -5) { // space or Keyboard.KEYCODE_DELETE
+                if (c == ' ' && word.length() > 0) {
+                    letters.add(word.toString().toCharArray());
+                    long[] copy = new long[2*word.length() - 1];
+                    System.arraycopy(timings, 0, copy, 0, copy.length);
+                    samples.add(copy);
+                }
+                word.setLength(0);
+            } else if (((c | 0x20) >= 'a' && (c | 0x20) <= 'z') && 2*word.length() + 1 < timings.length) {
+                if (word.length() > 0) {
+                    timings[2*word.length() - 1] = Math.max(0, trace.eventTimes[i] - previous - trace.durations[i]);
+                }
+                timings[2*word.length()] = trace.durations[i];
+                word.append((char)c);
+            }
+            previous = trace.eventTimes[i];
+        }
+        return new TraceWords(letters.toArray(new char[letters.size()][]), samples.toArray(new long[samples.size()][]));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.mobile.typinganalyzer.benchmark;
+
+import com.example.mobile.typinganalyzer.BatchScorer;
+import com.example.mobile.typinganalyzer.WordProfile;
+import com.example.mobile.typinganalyzer.WordScorer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* Cost of scoring one completed word against its profile (checkWordUpdateScore) and of folding
+ * it into the profile (WordProfile.add). Profiles are trained on the trace first so the scores see
+ * realistic variances.
+ *
+ * The batch benchmarks score BATCH words per call, one by one through WordScorer and all at once
+ * through the BatchScorer, with and without gathering the words into it, and gathering with the
+ * standard deviations taken once per profile like the replay does; the times are per word.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WordScoringBenchmark {
+    private static final int TRAINING_SAMPLES = 5;
+    private static final int BATCH = 256;
+
+    @Param("")
+    public String trace;
+
+    private TraceWords words;
+    private WordProfile[] profiles;
+    private WordScorer scorer;
+    private BatchScorer batchScorer;
+    private BatchScorer gathered;
+    private double[][] stdDevs;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        words = TraceWords.split(KeystrokeTrace.open(trace));
+        scorer = new WordScorer(2);
+        Map<String, WordProfile> byWord = new HashMap<>();
+        profiles = new WordProfile[words.size];
+        for (int i = 0; i < words.size; ++i) {
+            String word = new String(words.letters[i]).toLowerCase();
+            WordProfile profile = byWord.get(word);
+            if (profile == null) {
+                profile = WordProfile.of(words.samples[i], word.length());
+                byWord.put(word, profile);
+            } else if (profile.getCount() < TRAINING_SAMPLES) {
+                profile.add(words.samples[i]);
+            }
+            profiles[i] = profile;
+        }
+        stdDevs = new double[words.size][];
+        for (int i = 0; i < words.size; ++i) {
+            stdDevs[i] = BatchScorer.stdDevs(profiles[i].getTimings());
+        }
+        batchScorer = new BatchScorer(2, BATCH);
+        gathered = new BatchScorer(2, BATCH);
+        for (int i = 0; i < BATCH; ++i) {
+            int w = i % words.size;
+            gathered.add(profiles[w].getTimings(), words.samples[w], words.letters[w].length);
+        }
+    }
+
+    @Benchmark
+    public boolean scoreWord() {
+        int i = next;
+        next = i + 1 == words.size ? 0 : i + 1;
+        int length = words.letters[i].length;
+        return WordScorer.accepts(scorer.countWithinThreshold(profiles[i].getTimings(), words.samples[i], length), length);
+    }
+
+    @Benchmark
+    public WordProfile updateProfile() {
+        int i = next;
+        next = i + 1 == words.size ? 0 : i + 1;
+        profiles[i].add(words.samples[i]);
+        return profiles[i];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int scoreWordsOneByOne() {
+        int accepted = 0;
+        for (int n = 0; n < BATCH; ++n) {
+            int i = next;
+            next = i + 1 == words.size ? 0 : i + 1;
+            int length = words.letters[i].length;
+            if (WordScorer.accepts(scorer.countWithinThreshold(profiles[i].getTimings(), words.samples[i], length), length)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double gatherAndScoreBatch() {
+        batchScorer.clear();
+        for (int n = 0; n < BATCH; ++n) {
+            int i = next;
+            next = i + 1 == words.size ? 0 : i + 1;
+            batchScorer.add(profiles[i].getTimings(), words.samples[i], words.letters[i].length);
+        }
+        batchScorer.score();
+        return batchScorer.applyScores(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double scoreGatheredBatch() {
+        gathered.score();
+        return gathered.applyScores(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double gatherPrecomputedAndScoreBatch() {
+        batchScorer.clear();
+        for (int n = 0; n < BATCH; ++n) {
+            int i = next;
+            next = i + 1 == words.size ? 0 : i + 1;
+            batchScorer.add(profiles[i].getTimings(), stdDevs[i], words.samples[i], words.letters[i].length);
+        }
+        batchScorer.score();
+        return batchScorer.applyScores(0);
+    }
+}
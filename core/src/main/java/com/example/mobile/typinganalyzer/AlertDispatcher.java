@@ -0,0 +1,206 @@
+package com.example.mobile.typinganalyzer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* The AlertSink the analyzer talks to, which hands the alerts on to any number of sinks on a
+ * thread of its own, so neither the analysis worker nor the UI thread ever waits on a sink.
+ *
+ * Word scores are coalesced: a scored word only records the latest score, and at most one delivery
+ * is scheduled per scoreInterval; it hands the sinks whatever the latest score is by then. A burst
+ * of words therefore costs the sinks one call, and the last score of the burst is never lost.
+ * Threshold alerts are delivered one by one, but only once per alertCooldown for each score, the
+ * ones in between are dropped ("alerts_suppressed"). That only holds back the noisy sinks, like a
+ * notification or the log: protective sinks (addProtectiveSink()), which act on the alert, get
+ * every one of them.
+ *
+ * The trace sink is the exception: it is called right away on the analysis thread for every word
+ * and alert, for debugging. Without one, a scored word costs an uncontended lock and, once per
+ * interval, a scheduled task.
+ */
+public class AlertDispatcher implements AlertSink {
+    private final Clock clock;
+    private final long scoreInterval;
+    private final long alertCooldown;
+    private final ScheduledThreadPoolExecutor executor;
+    private final List<AlertSink> sinks = new CopyOnWriteArrayList<>();
+    private final List<AlertSink> protectiveSinks = new CopyOnWriteArrayList<>();
+    private volatile AlertSink traceSink;
+    private final AtomicLong coalesced;
+    private final AtomicLong suppressed;
+    private final AtomicLong sinkErrors;
+
+    // guarded by this
+    private double pendingScore;
+    private boolean pendingAccepted;
+    private int pendingWords;
+    private boolean scoreScheduled;
+    private long lastScoreDelivery;
+    private final Map<String, Long> lastAlerts = new HashMap<>();
+
+    private final Runnable deliverScore = new Runnable() {
+        @Override
+        public void run() {
+            double score;
+            boolean accepted;
+            synchronized (AlertDispatcher.this) {
+                scoreScheduled = false;
+                if (pendingWords == 0) {
+                    return;
+                }
+                score = pendingScore;
+                accepted = pendingAccepted;
+                coalesced.addAndGet(pendingWords - 1);
+                pendingWords = 0;
+                lastScoreDelivery = clock.now();
+            }
+            deliverScore(sinks, score, accepted);
+            deliverScore(protectiveSinks, score, accepted);
+        }
+    };
+
+    /* scoreInterval and alertCooldown are in the milliseconds of the clock */
+    public AlertDispatcher(Clock clock, long scoreInterval, long alertCooldown, Metrics metrics) {
+        this.clock = clock;
+        this.scoreInterval = scoreInterval;
+        this.alertCooldown = alertCooldown;
+        lastScoreDelivery = clock.now() - scoreInterval;
+        coalesced = metrics.counter("alerts_coalesced");
+        suppressed = metrics.counter("alerts_suppressed");
+        sinkErrors = metrics.counter("alert_sink_errors");
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TypingAnalyzer-alerts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        // anything scheduled after close() is dropped
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /* Adds a sink. It is called on the dispatcher thread; sinks that touch the UI have to post to
+     * the main thread themselves.
+     */
+    public void addSink(AlertSink sink) {
+        sinks.add(sink);
+    }
+
+    /* Adds a sink that protects the device, rather than telling the user, so it gets every
+     * threshold alert regardless of the cooldown. Called on the dispatcher thread like any sink.
+     */
+    public void addProtectiveSink(AlertSink sink) {
+        protectiveSinks.add(sink);
+    }
+
+    public void removeSink(AlertSink sink) {
+        sinks.remove(sink);
+        protectiveSinks.remove(sink);
+    }
+
+    /* sets the sink that sees every word and alert as it happens, on the analysis thread, or null */
+    public void setTraceSink(AlertSink traceSink) {
+        this.traceSink = traceSink;
+    }
+
+    @Override
+    public void onWordScored(double score, boolean accepted) {
+        AlertSink trace = traceSink;
+        if (trace != null) {
+            trace.onWordScored(score, accepted);
+        }
+        long delay;
+        synchronized (this) {
+            pendingScore = score;
+            pendingAccepted = accepted;
+            ++pendingWords;
+            if (scoreScheduled) {
+                return;
+            }
+            scoreScheduled = true;
+            delay = Math.max(0, lastScoreDelivery + scoreInterval - clock.now());
+        }
+        schedule(deliverScore, delay);
+    }
+
+    @Override
+    public void onThresholdExceeded(final String scoreName, final double score, final double threshold) {
+        AlertSink trace = traceSink;
+        if (trace != null) {
+            trace.onThresholdExceeded(scoreName, score, threshold);
+        }
+        long now = clock.now();
+        final boolean coolingDown;
+        synchronized (this) {
+            Long last = lastAlerts.get(scoreName);
+            coolingDown = last != null && now - last < alertCooldown;
+            if (coolingDown) {
+                suppressed.incrementAndGet();
+            } else {
+                lastAlerts.put(scoreName, now);
+            }
+        }
+        if (coolingDown && protectiveSinks.isEmpty()) {
+            return;
+        }
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                deliverAlert(protectiveSinks, scoreName, score, threshold);
+                if (!coolingDown) {
+                    deliverAlert(sinks, scoreName, score, threshold);
+                }
+            }
+        }, 0);
+    }
+
+    private void deliverScore(List<AlertSink> targets, double score, boolean accepted) {
+        for (AlertSink sink : targets) {
+            try {
+                sink.onWordScored(score, accepted);
+            } catch (RuntimeException e) {
+                sinkErrors.incrementAndGet();
+            }
+        }
+    }
+
+    private void deliverAlert(List<AlertSink> targets, String scoreName, double score, double threshold) {
+        for (AlertSink sink : targets) {
+            try {
+                sink.onThresholdExceeded(scoreName, score, threshold);
+            } catch (RuntimeException e) {
+                sinkErrors.incrementAndGet();
+            }
+        }
+    }
+
+    /* Delivers the pending score right away, along with anything already queued, then stops the
+     * dispatcher thread. Alerts that come in afterwards are dropped.
+     */
+    public void close() {
+        schedule(deliverScore, 0);
+        executor.shutdown();
+    }
+
+    /* waits for close() to finish the deliveries; returns false on timeout */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private void schedule(Runnable task, long delay) {
+        if (delay == 0) {
+            executor.execute(task);
+        } else {
+            executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
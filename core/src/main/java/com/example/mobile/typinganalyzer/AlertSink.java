@@ -0,0 +1,12 @@
+package com.example.mobile.typinganalyzer;
+
+/* Receives what the analyzer has to say about the person typing. Called on the analysis thread,
+ * so implementations that touch the UI have to hand the work over themselves.
+ */
+public interface AlertSink {
+    /* called after every scored word with the new word score */
+    void onWordScored(double score, boolean accepted);
+
+    /* called when a score goes over its threshold, right before the score is reset */
+    void onThresholdExceeded(String scoreName, double score, double threshold);
+}
@@ -0,0 +1,41 @@
+package com.example.mobile.typinganalyzer;
+
+/* The tunable parameters of AnalyzerCore. The defaults are what the keyboard runs with; offline
+ * tools change them to try other thresholds.
+ */
+public class AnalyzerConfig {
+    // the word score that triggers an alert
+    public double scoreThreshold = 20;
+    // samples a word (or letter, or letter pair) needs before it is scored
+    public int countThreshold = 5;
+    // how many standard deviations a timing may be away from its average
+    public double stdDevThreshold = 2;
+    // Samples of a word after which a sample weighs half as much in its profile (DecayedStats).
+    // 0 keeps exact cumulative profiles where every sample weighs the same.
+    public int halfLife = 0;
+
+    // per-keystroke model: an anomalous key adds the penalty, a normal one takes off the reward
+    public double keystrokeScoreThreshold = 20;
+    public double keystrokePenalty = 1;
+    public double keystrokeReward = 0.5;
+    // the models only learn outliers and new words while both scores are below this fraction of
+    // their thresholds, so a single odd key or word does not stop the learning
+    public double trustedScoreFraction = 0.25;
+
+    public int cacheCapacity = 256;
+    public int initialWordCapacity = 16;
+
+    // write-behind: flush after this many changed words or this much time, whichever comes first
+    public int flushWordThreshold = 32;
+    public long flushInterval = 30000;
+
+    // Maintenance of the profile store, when the keyboard is idle: at most once per interval and
+    // for at most the budget at a time (ms). Profiles below countThreshold are pruned once unused
+    // for pruneColdAfter, all profiles once unused for pruneAfter (0 keeps them). Counts above
+    // maxProfileCount are scaled down to half of it.
+    public long maintenanceInterval = 24*60*60*1000L;
+    public long maintenanceBudget = 250;
+    public long pruneColdAfter = 30*24*60*60*1000L;
+    public long pruneAfter = 365*24*60*60*1000L;
+    public int maxProfileCount = 1 << 16;
+}
@@ -0,0 +1,365 @@
+package com.example.mobile.typinganalyzer;
+
+/* The platform-independent heart of the analyzer: it segments the key events into words, keeps
+ * the word profiles and the digraph model up to date, scores the typing against them and decides
+ * when to raise an alert and when to write back. Time, storage and alerts come in through the
+ * Clock, ProfileStore, StateStore and AlertSink interfaces, so the same code runs inside the
+ * keyboard and on a plain JVM.
+ *
+ * Profiles are partitioned, e.g. by app and kind of input field (setPartition()). Every word
+ * updates both its profile in the current partition and the global one, and is scored against the
+ * partition's profile once that has enough samples, against the global one until then. Scores and
+ * the digraph model are shared by all partitions.
+ *
+ * Not thread safe; all calls have to come from one thread. Given a Metrics, it times every key,
+ * every dictionary word and every flush.
+ */
+public class AnalyzerCore {
+    // same value as android.inputmethodservice.Keyboard.KEYCODE_DELETE
+    public static final int KEYCODE_DELETE = -5;
+    public static final String SCORE_ID = "score";
+    public static final String KEYSTROKE_SCORE_ID = "keystroke_score";
+    // the partition every word is learned in, whatever partition it was typed in
+    public static final String GLOBAL_PARTITION = "";
+
+    private final AnalyzerConfig config;
+    private final Clock clock;
+    private final DictionaryIndex dictionary;
+    private final TimeProfileCache cache;
+    private final StateStore state;
+    private final AlertSink alerts;
+    private final WordScorer scorer;
+    private final WordBuffer curWord;
+    // DecayedStats retention of the profiles, 0 for cumulative profiles
+    private final double retention;
+    private DigraphModel digraphs;
+    private String partition = GLOBAL_PARTITION;
+    private long timer;
+    private double score;
+    private double keystrokeScore;
+    private int pendingWrites;
+    private long lastFlush;
+    private boolean scoreDirty;
+    private boolean digraphsDirty;
+    // all null without metrics
+    private final LatencyHistogram pushTimes;
+    private final LatencyHistogram wordTimes;
+    private final LatencyHistogram flushTimes;
+
+    public AnalyzerCore(AnalyzerConfig config, Clock clock, DictionaryIndex dictionary, ProfileStore profiles, StateStore state, AlertSink alerts) {
+        this(config, clock, dictionary, profiles, state, alerts, null);
+    }
+
+    public AnalyzerCore(AnalyzerConfig config, Clock clock, DictionaryIndex dictionary, ProfileStore profiles, StateStore state, AlertSink alerts, Metrics metrics) {
+        this.config = config;
+        this.clock = clock;
+        this.dictionary = dictionary;
+        this.state = state;
+        this.alerts = alerts;
+        cache = new TimeProfileCache(profiles, config.cacheCapacity);
+        scorer = new WordScorer(config.stdDevThreshold);
+        curWord = new WordBuffer(config.initialWordCapacity);
+        retention = config.halfLife > 0 ? DecayedStats.retention(config.halfLife) : 0;
+        score = state.loadScore(SCORE_ID);
+        keystrokeScore = state.loadScore(KEYSTROKE_SCORE_ID);
+        digraphs = new DigraphModel(config.countThreshold, config.stdDevThreshold);
+        if (!state.loadDigraphs(digraphs)) {
+            // start from scratch rather than from whatever a failed load left behind
+            digraphs = new DigraphModel(config.countThreshold, config.stdDevThreshold);
+        }
+        timer = clock.now();
+        lastFlush = timer;
+        pushTimes = metrics != null ? metrics.histogram("push_char") : null;
+        wordTimes = metrics != null ? metrics.histogram("word") : null;
+        flushTimes = metrics != null ? metrics.histogram("flush") : null;
+    }
+
+    /* The only function needed for interfacing with this class. This function take a character
+     * (presumably the next character in the text), the duration of the key press and the time at
+     * which the key was released. Alphanumeric, space, and backspace are only considered;
+     * everything else is ignored for simplicity. Words are delimited with space and backspace.
+     * Once a word is formed, it is pushed on for further analysis (checked with the profiles).
+     * Nothing is allocated per key; the letters and timings go into the reusable curWord buffer.
+     */
+    public void push_char(int c, long duration, long eventTime) {
+        long start = pushTimes != null ? System.nanoTime() : 0;
+        long latency = 0;
+        if (curWord.length() > 0) {
+            latency = getLatency(duration, eventTime);
+        } else {
+            timer = eventTime;
+        }
+        if ((char)c == ' ') {
+            // check if the word is in the database and integrate the timings
+            updateEntry();
+            // reset the word and the timings
+            resetWord();
+            maybeFlush(eventTime);
+        } else if (c == KEYCODE_DELETE) {
+            resetWord();
+        } else if ((c > 64 && c < 91) || (c > 96 && c < 123)) { // A-Z and a-z
+            int previous = curWord.length() > 0 ? DigraphModel.letterIndex(curWord.chars()[curWord.length() - 1]) : -1;
+            checkKeystrokeUpdateScore(digraphs.observe(previous, DigraphModel.letterIndex(c), duration, latency, isTrusted()));
+            curWord.append((char)c, latency, duration);
+        }
+        if (pushTimes != null) {
+            pushTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    /* lets the time threshold of the write-behind kick in while no keys arrive */
+    public void onIdle() {
+        maybeFlush(clock.now());
+    }
+
+    /* Flushes the pending writes if enough words have changed or the oldest change is older
+     * than the flush interval.
+     */
+    public void maybeFlush(long now) {
+        boolean pending = pendingWrites > 0 || digraphsDirty;
+        if (pendingWrites >= config.flushWordThreshold || (pending && now - lastFlush >= config.flushInterval)) {
+            flush(now);
+        }
+    }
+
+    public void flush() {
+        flush(clock.now());
+    }
+
+    /* Writes all cached profile changes back in one batch, along with the digraph model and the
+     * scores.
+     */
+    public void flush(long now) {
+        long start = flushTimes != null ? System.nanoTime() : 0;
+        if (pendingWrites > 0) {
+            cache.flush();
+        }
+        if (digraphsDirty) {
+            state.saveDigraphs(digraphs);
+        }
+        if (scoreDirty || digraphsDirty) {
+            state.saveScore(SCORE_ID, score);
+            state.saveScore(KEYSTROKE_SCORE_ID, keystrokeScore);
+            state.commit();
+        }
+        pendingWrites = 0;
+        scoreDirty = false;
+        digraphsDirty = false;
+        lastFlush = now;
+        if (flushTimes != null) {
+            flushTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public double getKeystrokeScore() {
+        return keystrokeScore;
+    }
+
+    public TimeProfileCache getCache() {
+        return cache;
+    }
+
+    /* Switches to the profiles of another partition, from the next key on. A word typed halfway
+     * belongs to neither, so it is dropped.
+     */
+    public void setPartition(String partition) {
+        if (!partition.equals(this.partition)) {
+            // only ever the one instance of the global partition, so it can be told apart by ==
+            this.partition = partition.isEmpty() ? GLOBAL_PARTITION : partition;
+            resetWord();
+        }
+    }
+
+    public String getPartition() {
+        return partition;
+    }
+
+    public DigraphModel getDigraphs() {
+        return digraphs;
+    }
+
+    /* subtracts the duration from the time between newTimer and timer to get the latency, also
+     * updates the timer.
+     */
+    private long getLatency(long duration, long newTimer) {
+        long latency = newTimer - timer - duration;
+        if (latency < 0) {
+            latency = 0;
+        }
+        timer = newTimer;
+        return latency;
+    }
+
+    /* resets the word and timings */
+    private void resetWord() {
+        curWord.reset();
+    }
+
+    /* Checks if the timings for this word are good or not. It goes through each timing and figures
+     * out whether it falls in the threshold or not. It keeps track of how many timings are good and
+     * checks for the overall goodness. If the timings are bad, then the score is increases
+     * proportional to the square root of the length of the word. Once the score is high enough,
+     * some sort of alert will be given to user. This function returns a boolean which indicates
+     * whether the timing was good or not. The samples are the word's timings as kept by
+     * WordBuffer and the profile timings are the matching averages and variances.
+     */
+    private boolean checkWordUpdateScore(double[] timings, long[] samples, int length) {
+        boolean result;
+        int miniScore = scorer.countWithinThreshold(timings, samples, length);
+        if (!WordScorer.accepts(miniScore, length)) {
+            score += Math.sqrt(length);
+            result = false;
+        } else {
+            score -= Math.sqrt(length);
+            if (score < 0) {
+                score = 0;
+            }
+            result = true;
+        }
+        alerts.onWordScored(score, result);
+        inspectScore();
+        scoreDirty = true;
+        return result;
+    }
+
+    /* Every letter, dictionary word or not, is also judged by the DigraphModel on its own press
+     * duration and its latency from the previous letter. Anomalous keystrokes push the keystroke
+     * score up and normal ones bring it back down, so a stranger at the keyboard shows up after a
+     * few keys rather than after a few known words.
+     */
+    private void checkKeystrokeUpdateScore(boolean anomalous) {
+        if (anomalous) {
+            keystrokeScore += config.keystrokePenalty;
+        } else {
+            keystrokeScore -= config.keystrokeReward;
+            if (keystrokeScore < 0) {
+                keystrokeScore = 0;
+            }
+        }
+        digraphsDirty = true;
+        if (keystrokeScore > config.keystrokeScoreThreshold) {
+            alerts.onThresholdExceeded(KEYSTROKE_SCORE_ID, keystrokeScore, config.keystrokeScoreThreshold);
+            keystrokeScore = 0;
+        }
+    }
+
+    /* True while both scores are well below their thresholds (AnalyzerConfig.trustedScoreFraction).
+     * Only then do the models learn samples they cannot judge or would reject: the keystrokes
+     * outside the threshold of the DigraphModel and the words that have no established profile
+     * yet. Otherwise an intruder would train the models on their own typing while the scores are
+     * still under the threshold.
+     */
+    private boolean isTrusted() {
+        return score < config.trustedScoreFraction*config.scoreThreshold
+                && keystrokeScore < config.trustedScoreFraction*config.keystrokeScoreThreshold;
+    }
+
+    /* Looks at the score to see if it is above the threshold, yes: do some action and reset score
+     * no: do nothing.
+     */
+    private void inspectScore() {
+        if (score > config.scoreThreshold) {
+            alerts.onThresholdExceeded(SCORE_ID, score, config.scoreThreshold);
+            score = 0;
+        }
+    }
+
+    /* Called when there is a viable word to investigate. The curWord is first checked against the
+     * dictionary of all the common words, straight from the letters in the buffer. If that
+     * condition passes, then the word is looked up through the TimeProfileCache, which only goes
+     * to the ProfileStore on a miss, in the current partition and in the global one. The profile
+     * it is judged by is the partition's if that has been seen often enough, otherwise the global
+     * one. Then a couple of things happen depending on a some conditions:
+     *
+     *    1.) if the amount of times the word has been encountered is less than a certain amount,
+     *        the timings get integrated with the current timing stats (average and variance) in the
+     *        database, as long as isTrusted(). The first few set of words is crucial for
+     *        determining the average and variance for the timings.
+     *    2.) if amount is higher, then it gets tested for whether the timings are good or not using
+     *        checkWordUpdateScore() method. If the timings are not good, then this function doesn't
+     *        do anything (but checkWordUpdateScore() will update the score). If the timiings are
+     *        good, then the database is updated with these timings.
+     *
+     *  Until the partition's profile has enough samples the word is scored against the global
+     *  profile instead, but the partition still learns its own samples as long as isTrusted(), so
+     *  a field that is typed in differently (a password, say) warms up a profile of its own. The
+     *  global profile only learns the words of cold partitions that it accepts itself; once a
+     *  partition is warm its words stay there, so the global profile does not turn into a blend
+     *  of every field. If the word has no profile yet in a partition, then it is inserted there
+     *  with the appropriate initial values for each average and variance. Changes stay in the
+     *  cache until they are written back.
+     */
+    private void updateEntry() {
+        // check if word is in the dictionary
+        int id = dictionary.lookup(curWord.chars(), curWord.length());
+        if (id >= 0) {
+            long start = wordTimes != null ? System.nanoTime() : 0;
+            // the dictionary hands out the same lowercase String for a word every time
+            String word = dictionary.word(id);
+            // look the word up in the cache, which falls back to the store
+            WordProfile global = cache.get(GLOBAL_PARTITION, word);
+            boolean inPartition = partition != GLOBAL_PARTITION;
+            WordProfile local = inPartition ? cache.get(partition, word) : global;
+            // judged before the word moves the score
+            boolean trusted = isTrusted();
+
+            if (isEstablished(local)) {
+                // judged by and learned into the partition's own profile only
+                if (checkWordUpdateScore(local.timings, curWord.timings(), curWord.length())) {
+                    learnWord(partition, word, local);
+                    pendingWrites++;
+                }
+            } else {
+                // a word without an established profile cannot be judged, it is only learned if trusted
+                boolean accepted = isEstablished(global)
+                        ? checkWordUpdateScore(global.timings, curWord.timings(), curWord.length())
+                        : trusted;
+                if (accepted) {
+                    learnWord(GLOBAL_PARTITION, word, global);
+                }
+                if (inPartition && trusted) {
+                    learnWord(partition, word, local);
+                }
+                if (accepted || (inPartition && trusted)) {
+                    pendingWrites++;
+                }
+            }
+            if (wordTimes != null) {
+                wordTimes.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /* true if the profile has enough samples to judge a word by */
+    private boolean isEstablished(WordProfile profile) {
+        return profile != null && profile.count >= config.countThreshold;
+    }
+
+    /* updates the profile with the samples, or inserts the word if it has none yet */
+    private void learnWord(String partition, String word, WordProfile profile) {
+        if (profile != null) {
+            updateWord(profile, curWord.timings());
+        } else {
+            insertWord(partition, word, curWord.timings());
+        }
+    }
+
+    /* folds the samples into the cached profile, decayed if the configuration asks for it */
+    private void updateWord(WordProfile profile, long[] samples) {
+        if (retention > 0) {
+            profile.addDecayed(samples, retention);
+        } else {
+            profile.add(samples);
+        }
+        profile.dirty = true;
+    }
+
+    /* adds the word to the cache with the samples as its first set of timings */
+    private void insertWord(String partition, String word, long[] samples) {
+        cache.put(partition, word, TimingStats.initial(samples, word.length()));
+    }
+}
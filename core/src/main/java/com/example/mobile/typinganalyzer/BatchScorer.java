@@ -0,0 +1,172 @@
+package com.example.mobile.typinganalyzer;
+
+import java.util.Arrays;
+
+/* Scores many words at once, for offline and backlog scoring against profiles that no longer
+ * change, like the replay does with the final profiles of a user. The words of a batch are
+ * gathered into flat primitive arrays, one element per timing of every word (struct of arrays):
+ * the sample, the profile's average and its standard deviation. The standard deviations are
+ * either taken when the word is added or, for a profile that scores many words, once up front
+ * with stdDevs(). score() then runs two tight loops over them, one flat pass that tests every
+ * timing against the threshold and one that sums the hits per word, so the JIT can unroll and
+ * vectorize them.
+ *
+ * The result is the same as WordScorer.countWithinThreshold() and WordScorer.accepts() for every
+ * word, bit for bit: the comparison is the same floating point expression, only evaluated
+ * elsewhere. applyScores() folds the score changes of the batch into a word score.
+ *
+ * Not thread safe; the arrays are reused from batch to batch and grow as needed.
+ */
+public class BatchScorer {
+    private final double stdDevThreshold;
+    // per timing, words one after the other
+    private long[] samples;
+    private double[] means;
+    private double[] stdDevs;
+    private int[] hits;
+    // per word; the timings of word w are starts[w] until starts[w + 1]
+    private int[] starts;
+    private int[] lengths;
+    private int[] within;
+    private boolean[] accepted;
+    private double[] deltas;
+    private int words;
+    private int timings;
+
+    public BatchScorer(double stdDevThreshold, int initialWords) {
+        this.stdDevThreshold = stdDevThreshold;
+        int initialTimings = initialWords*8;
+        samples = new long[initialTimings];
+        means = new double[initialTimings];
+        stdDevs = new double[initialTimings];
+        hits = new int[initialTimings];
+        starts = new int[initialWords + 1];
+        lengths = new int[initialWords];
+        within = new int[initialWords];
+        accepted = new boolean[initialWords];
+        deltas = new double[initialWords];
+    }
+
+    /* empties the batch, keeping the arrays */
+    public void clear() {
+        words = 0;
+        timings = 0;
+    }
+
+    /* Adds a word with its profile timings (WordProfile order) and its samples (WordBuffer
+     * order). Returns the index of the word in the batch.
+     */
+    public int add(double[] profileTimings, long[] wordSamples, int length) {
+        int n = 2*length - 1;
+        ensureCapacity(words + 1, timings + n);
+        for (int i = 0; i < n; ++i) {
+            samples[timings + i] = wordSamples[i];
+            means[timings + i] = profileTimings[2*i];
+            stdDevs[timings + i] = Math.sqrt(profileTimings[2*i + 1]);
+        }
+        lengths[words] = length;
+        starts[words] = timings;
+        timings += n;
+        starts[words + 1] = timings;
+        return words++;
+    }
+
+    /* Adds a word like add(double[], long[], int), with the standard deviations of its profile
+     * already taken by stdDevs().
+     */
+    public int add(double[] profileTimings, double[] profileStdDevs, long[] wordSamples, int length) {
+        int n = 2*length - 1;
+        ensureCapacity(words + 1, timings + n);
+        for (int i = 0; i < n; ++i) {
+            samples[timings + i] = wordSamples[i];
+            means[timings + i] = profileTimings[2*i];
+        }
+        System.arraycopy(profileStdDevs, 0, stdDevs, timings, n);
+        lengths[words] = length;
+        starts[words] = timings;
+        timings += n;
+        starts[words + 1] = timings;
+        return words++;
+    }
+
+    /* the standard deviation of every timing of a profile (WordProfile order), for add() */
+    public static double[] stdDevs(double[] profileTimings) {
+        double[] stdDevs = new double[profileTimings.length/2];
+        for (int i = 0; i < stdDevs.length; ++i) {
+            stdDevs[i] = Math.sqrt(profileTimings[2*i + 1]);
+        }
+        return stdDevs;
+    }
+
+    /* scores every word of the batch */
+    public void score() {
+        long[] samples = this.samples;
+        double[] means = this.means;
+        double[] stdDevs = this.stdDevs;
+        int[] hits = this.hits;
+        double threshold = stdDevThreshold;
+        for (int j = 0; j < timings; ++j) {
+            hits[j] = Math.abs(samples[j] - means[j]) < threshold*stdDevs[j] ? 1 : 0;
+        }
+        for (int w = 0; w < words; ++w) {
+            int count = 0;
+            for (int j = starts[w], end = starts[w + 1]; j < end; ++j) {
+                count += hits[j];
+            }
+            int length = lengths[w];
+            within[w] = count;
+            accepted[w] = WordScorer.accepts(count, length);
+            deltas[w] = accepted[w] ? -Math.sqrt(length) : Math.sqrt(length);
+        }
+    }
+
+    /* Applies the score changes of the batch in order to the given word score, never letting it
+     * drop below zero, and returns the new score. Unlike AnalyzerCore it does not alert or reset
+     * the score when it passes a threshold.
+     */
+    public double applyScores(double score) {
+        for (int w = 0; w < words; ++w) {
+            score += deltas[w];
+            if (score < 0) {
+                score = 0;
+            }
+        }
+        return score;
+    }
+
+    public int size() {
+        return words;
+    }
+
+    /* the number of timings of the word within the threshold of their average */
+    public int getWithin(int word) {
+        return within[word];
+    }
+
+    public boolean isAccepted(int word) {
+        return accepted[word];
+    }
+
+    /* how much the word moves the word score: down by sqrt(length) if accepted, up otherwise */
+    public double getScoreDelta(int word) {
+        return deltas[word];
+    }
+
+    private void ensureCapacity(int wordCapacity, int timingCapacity) {
+        if (timingCapacity > samples.length) {
+            int capacity = Math.max(timingCapacity, 2*samples.length);
+            samples = Arrays.copyOf(samples, capacity);
+            means = Arrays.copyOf(means, capacity);
+            stdDevs = Arrays.copyOf(stdDevs, capacity);
+            hits = new int[capacity];
+        }
+        if (wordCapacity > lengths.length) {
+            int capacity = Math.max(wordCapacity, 2*lengths.length);
+            starts = Arrays.copyOf(starts, capacity + 1);
+            lengths = Arrays.copyOf(lengths, capacity);
+            within = new int[capacity];
+            accepted = new boolean[capacity];
+            deltas = new double[capacity];
+        }
+    }
+}
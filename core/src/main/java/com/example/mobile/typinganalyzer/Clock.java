@@ -0,0 +1,8 @@
+package com.example.mobile.typinganalyzer;
+
+/* Source of the current time in milliseconds, on the same monotonic time base as the key event
+ * times handed to AnalyzerCore (SystemClock.elapsedRealtime() on the device).
+ */
+public interface Clock {
+    long now();
+}
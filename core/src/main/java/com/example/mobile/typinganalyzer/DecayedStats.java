@@ -0,0 +1,34 @@
+package com.example.mobile.typinganalyzer;
+
+/* Exponentially weighted averages and variances for decayed word profiles. Every new sample
+ * multiplies the weight of the earlier ones by the retention, so a sample counts half as much
+ * after halfLife more samples of the same word and the profile follows drift in the typing
+ * within a few half-lives, in constant memory and O(1) per sample.
+ *
+ * The weight of a profile grows towards 1/(1 - retention) and each sample moves the averages by
+ * 1/weight of its distance to them. While the weight is small that is exactly the running mean
+ * and population variance of the samples so far, so new words start out the same as in the
+ * cumulative mode. Timings are in WordProfile order: d0_avg, d0_var, l0_avg, l0_var, d1_avg, ...
+ */
+public final class DecayedStats {
+    private DecayedStats() {}
+
+    /* the factor the weight of a sample loses with every newer sample, for a half-life > 0 */
+    public static double retention(int halfLife) {
+        return Math.pow(0.5, 1.0/halfLife);
+    }
+
+    /* Folds one sample per timing into the averages and variances, discounting the weight of the
+     * earlier samples first. Returns the new weight.
+     */
+    public static double add(double[] timings, double weight, double retention, long[] samples) {
+        double newWeight = retention*weight + 1;
+        double a = 1/newWeight;
+        for (int i = 0; i < timings.length; i += 2) {
+            double diff = TimingStats.clamp(samples[i>>1]) - timings[i];
+            timings[i] += a*diff;
+            timings[i + 1] = (1 - a)*(timings[i + 1] + a*diff*diff);
+        }
+        return newWeight;
+    }
+}
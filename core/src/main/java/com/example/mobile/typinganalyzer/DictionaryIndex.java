@@ -0,0 +1,195 @@
+package com.example.mobile.typinganalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/* A read-only dictionary that is looked up straight from the letters of the word being typed,
+ * without building a String. The index is compiled at build time (see the compileDictionary task
+ * in app/build.gradle, which calls write()) and read from a ByteBuffer, so on the device it can be
+ * memory-mapped from the APK and only the pages that are touched get loaded.
+ *
+ * Layout, all ints big-endian:
+ *
+ *    header:  magic, version, word count, table size (a power of two), pool size
+ *    table:   table size ints, each 0 for an empty slot or 1 + the offset of a word in the pool
+ *    pool:    for each word its id (int), its length (byte) and its lowercase ASCII letters
+ *
+ * Words are placed in the table by their FNV-1a hash with linear probing and the table is kept at
+ * most half full, so a lookup touches one or two slots on average.
+ *
+ * This class has no Android dependencies since the build compiles it as well.
+ */
+public class DictionaryIndex {
+    static final int MAGIC = 0x54414458; // "TADX"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int FNV_OFFSET = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int MAX_WORD_LENGTH = 255;
+
+    private final ByteBuffer buffer;
+    private final int wordCount;
+    private final int mask;
+    private final int poolStart;
+    // canonical String for each word id, created the first time the word is found
+    private final String[] words;
+
+    private DictionaryIndex(ByteBuffer buffer, int wordCount, int tableSize) {
+        this.buffer = buffer;
+        this.wordCount = wordCount;
+        mask = tableSize - 1;
+        poolStart = HEADER_SIZE + 4*tableSize;
+        words = new String[wordCount];
+    }
+
+    /* Wraps a compiled index. Only the header is read here. */
+    public static DictionaryIndex load(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not a dictionary index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("unsupported dictionary version: " + buffer.getInt(4));
+        }
+        int wordCount = buffer.getInt(8);
+        int tableSize = buffer.getInt(12);
+        int poolSize = buffer.getInt(16);
+        if (tableSize <= 0 || (tableSize & (tableSize - 1)) != 0 || wordCount >= tableSize
+                || buffer.capacity() < HEADER_SIZE + 4*tableSize + poolSize) {
+            throw new IllegalArgumentException("corrupt dictionary index");
+        }
+        return new DictionaryIndex(buffer, wordCount, tableSize);
+    }
+
+    public int size() {
+        return wordCount;
+    }
+
+    /* Returns the id of the word made of the first length chars, ignoring case, or -1 if it is
+     * not in the dictionary.
+     */
+    public int lookup(char[] chars, int length) {
+        if (length == 0 || length > MAX_WORD_LENGTH) {
+            return -1;
+        }
+        int h = FNV_OFFSET;
+        for (int i = 0; i < length; ++i) {
+            int c = lower(chars[i]);
+            if (c < 0) {
+                return -1;
+            }
+            h = (h ^ c)*FNV_PRIME;
+        }
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int entry = buffer.getInt(HEADER_SIZE + 4*slot);
+            if (entry == 0) {
+                return -1;
+            }
+            int offset = poolStart + entry - 1;
+            if (matches(offset + 4, chars, length)) {
+                int id = buffer.getInt(offset);
+                if (words[id] == null) {
+                    words[id] = readWord(offset + 4);
+                }
+                return id;
+            }
+        }
+    }
+
+    public boolean contains(String word) {
+        return lookup(word.toCharArray(), word.length()) >= 0;
+    }
+
+    /* The lowercase word for an id returned by lookup(). The same String is returned every time. */
+    public String word(int id) {
+        return words[id];
+    }
+
+    private boolean matches(int offset, char[] chars, int length) {
+        if ((buffer.get(offset) & 0xff) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (buffer.get(offset + 1 + i) != lower(chars[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readWord(int offset) {
+        int length = buffer.get(offset) & 0xff;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char)buffer.get(offset + 1 + i);
+        }
+        return new String(chars);
+    }
+
+    /* lowercases an ASCII char, returns -1 for anything outside ASCII */
+    private static int lower(int c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c + ('a' - 'A');
+        }
+        return c < 128 ? c : -1;
+    }
+
+    /* Compiles the words into an index. Words are lowercased and duplicates are dropped; the ids
+     * follow the order of the first occurrence of each word.
+     */
+    public static void write(Collection<String> wordList, OutputStream out) throws IOException {
+        Set<String> unique = new LinkedHashSet<>();
+        for (String word : wordList) {
+            unique.add(word.toLowerCase(Locale.US));
+        }
+        int tableSize = 16;
+        while (tableSize < 2*unique.size()) {
+            tableSize <<= 1;
+        }
+
+        int[] table = new int[tableSize];
+        ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        DataOutputStream pool = new DataOutputStream(poolBytes);
+        int id = 0;
+        for (String word : unique) {
+            if (word.length() == 0 || word.length() > MAX_WORD_LENGTH) {
+                throw new IllegalArgumentException("bad dictionary word length: " + word);
+            }
+            int h = FNV_OFFSET;
+            for (int i = 0; i < word.length(); ++i) {
+                int c = lower(word.charAt(i));
+                if (c < 0) {
+                    throw new IllegalArgumentException("dictionary words must be ASCII: " + word);
+                }
+                h = (h ^ c)*FNV_PRIME;
+            }
+            int slot = h & (tableSize - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = pool.size() + 1;
+            pool.writeInt(id++);
+            pool.writeByte(word.length());
+            pool.writeBytes(word);
+        }
+        pool.flush();
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(unique.size());
+        data.writeInt(tableSize);
+        data.writeInt(poolBytes.size());
+        for (int i = 0; i < tableSize; ++i) {
+            data.writeInt(table[i]);
+        }
+        poolBytes.writeTo(data);
+        data.flush();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.mobile.typinganalyzer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* A per-keystroke timing model that learns across words. It keeps the running mean and variance
+ * (Welford) of the press duration of every letter and of the latency of every letter pair, in
+ * dense primitive arrays indexed by letter (a-z) and letter pair. Unlike the word profiles it
+ * needs no dictionary and a fixed, small amount of memory, and it can judge a keystroke as soon
+ * as that letter or pair has been seen a few times.
+ */
+public class DigraphModel {
+    public static final int LETTERS = 26;
+    private static final int FORMAT_VERSION = 1;
+
+    private final int minSamples;
+    private final double stdDevThreshold;
+
+    // index: letter for the durations, LETTERS*previous + letter for the latencies
+    private final int[] dwellCount = new int[LETTERS];
+    private final double[] dwellMean = new double[LETTERS];
+    private final double[] dwellM2 = new double[LETTERS];
+    private final int[] flightCount = new int[LETTERS*LETTERS];
+    private final double[] flightMean = new double[LETTERS*LETTERS];
+    private final double[] flightM2 = new double[LETTERS*LETTERS];
+
+    public DigraphModel(int minSamples, double stdDevThreshold) {
+        this.minSamples = minSamples;
+        this.stdDevThreshold = stdDevThreshold;
+    }
+
+    /* returns the index of an ASCII letter of either case, or -1 */
+    public static int letterIndex(int c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        return -1;
+    }
+
+    /* Scores one keystroke against what has been learned so far and then learns from it. previous
+     * is the letter index of the key before in the same word, or -1 if there is none, in which case
+     * the latency is ignored. Returns true if the keystroke is anomalous, i.e. its duration or its
+     * latency is further from the mean than the threshold allows.
+     *
+     * A duration or latency within the threshold is always learned. One outside of it is only
+     * learned if trusted is true, i.e. if the caller believes the usual person is typing, so the
+     * model keeps up with the user's own odd keystrokes without adapting to an intruder's.
+     */
+    public boolean observe(int previous, int letter, long duration, long latency, boolean trusted) {
+        boolean anomalous = isOutlier(dwellCount[letter], dwellMean[letter], dwellM2[letter], duration);
+        if (!anomalous || trusted) {
+            add(dwellCount, dwellMean, dwellM2, letter, duration);
+        }
+        if (previous >= 0) {
+            int pair = LETTERS*previous + letter;
+            boolean outlier = isOutlier(flightCount[pair], flightMean[pair], flightM2[pair], latency);
+            if (!outlier || trusted) {
+                add(flightCount, flightMean, flightM2, pair, latency);
+            }
+            anomalous |= outlier;
+        }
+        return anomalous;
+    }
+
+    public int getDwellCount(int letter) {
+        return dwellCount[letter];
+    }
+
+    public double getDwellMean(int letter) {
+        return dwellMean[letter];
+    }
+
+    /* population variance of the duration of a letter */
+    public double getDwellVariance(int letter) {
+        return dwellCount[letter] == 0 ? 0 : dwellM2[letter]/dwellCount[letter];
+    }
+
+    public int getFlightCount(int previous, int letter) {
+        return flightCount[LETTERS*previous + letter];
+    }
+
+    public double getFlightMean(int previous, int letter) {
+        return flightMean[LETTERS*previous + letter];
+    }
+
+    /* population variance of the latency between two letters */
+    public double getFlightVariance(int previous, int letter) {
+        int pair = LETTERS*previous + letter;
+        return flightCount[pair] == 0 ? 0 : flightM2[pair]/flightCount[pair];
+    }
+
+    private boolean isOutlier(int count, double mean, double m2, long value) {
+        if (count < minSamples) {
+            return false;
+        }
+        double stdDev = Math.sqrt(m2/count);
+        return Math.abs(value - mean) >= stdDevThreshold*stdDev && value != mean;
+    }
+
+    private static void add(int[] count, double[] mean, double[] m2, int i, long value) {
+        int n = ++count[i];
+        double delta = value - mean[i];
+        mean[i] += delta/n;
+        m2[i] += delta*(value - mean[i]);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(LETTERS);
+        writeStats(out, dwellCount, dwellMean, dwellM2);
+        writeStats(out, flightCount, flightMean, flightM2);
+    }
+
+    /* replaces the model's statistics with the ones written by writeTo() */
+    public void readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        int letters = in.readInt();
+        if (version != FORMAT_VERSION || letters != LETTERS) {
+            throw new IOException("unsupported digraph model: version " + version + ", " + letters + " letters");
+        }
+        readStats(in, dwellCount, dwellMean, dwellM2);
+        readStats(in, flightCount, flightMean, flightM2);
+    }
+
+    private static void writeStats(DataOutput out, int[] count, double[] mean, double[] m2) throws IOException {
+        for (int i = 0; i < count.length; ++i) {
+            out.writeInt(count[i]);
+            out.writeDouble(mean[i]);
+            out.writeDouble(m2[i]);
+        }
+    }
+
+    private static void readStats(DataInput in, int[] count, double[] mean, double[] m2) throws IOException {
+        for (int i = 0; i < count.length; ++i) {
+            count[i] = in.readInt();
+            mean[i] = in.readDouble();
+            m2[i] = in.readDouble();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.mobile.typinganalyzer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* A ProfileStore that keeps the profiles in a map, for tests and offline runs of AnalyzerCore.
+ * Profiles are copied in and out so the cached profiles and the stored ones never share sums,
+ * just like with a database. A batch that ends unsuccessfully is thrown away.
+ */
+public class InMemoryProfileStore implements ProfileStore {
+    private final HashMap<ProfileKey, WordProfile> profiles = new HashMap<>();
+    private final HashMap<ProfileKey, WordProfile> batch = new HashMap<>();
+    private final ProfileKey probe = new ProfileKey("", "");
+    private long nextId = 1;
+    private int batches;
+
+    @Override
+    public WordProfile load(String partition, String word) {
+        WordProfile stored = profiles.get(probe.set(partition, word));
+        return stored == null ? null : copy(stored);
+    }
+
+    @Override
+    public void beginWrite() {
+        batch.clear();
+    }
+
+    @Override
+    public void write(String partition, String word, WordProfile profile) {
+        if (profile.id < 0) {
+            profile.id = nextId++;
+        }
+        batch.put(new ProfileKey(partition, word), copy(profile));
+    }
+
+    @Override
+    public void endWrite(boolean successful) {
+        if (successful) {
+            profiles.putAll(batch);
+            batches++;
+        }
+        batch.clear();
+    }
+
+    /* number of profiles stored, over all partitions */
+    public int size() {
+        return profiles.size();
+    }
+
+    /* number of batches written successfully */
+    public int getBatchCount() {
+        return batches;
+    }
+
+    /* the stored profiles of the global partition by word */
+    public Map<String, WordProfile> snapshot() {
+        return snapshot(AnalyzerCore.GLOBAL_PARTITION);
+    }
+
+    /* the stored profiles of the partition by word; changes to them are not seen by the analyzer */
+    public Map<String, WordProfile> snapshot(String partition) {
+        HashMap<String, WordProfile> copies = new HashMap<>();
+        for (Map.Entry<ProfileKey, WordProfile> entry : profiles.entrySet()) {
+            if (entry.getKey().partition.equals(partition)) {
+                copies.put(entry.getKey().word, copy(entry.getValue()));
+            }
+        }
+        return copies;
+    }
+
+    private static WordProfile copy(WordProfile profile) {
+        if (profile.isDecayed()) {
+            return new WordProfile(profile.id, profile.count, profile.weight, profile.timings.clone());
+        }
+        return new WordProfile(profile.id, profile.count, profile.sums.clone());
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.mobile.typinganalyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/* A StateStore that keeps the scores in a map and the digraph model as serialized bytes, for
+ * tests and offline runs of AnalyzerCore. Saved scores only become visible after commit().
+ */
+public class InMemoryStateStore implements StateStore {
+    private final HashMap<String, Double> scores = new HashMap<>();
+    private final HashMap<String, Double> pending = new HashMap<>();
+    private byte[] digraphs;
+
+    @Override
+    public double loadScore(String name) {
+        Double value = scores.get(name);
+        return value == null ? 0 : value;
+    }
+
+    @Override
+    public void saveScore(String name, double value) {
+        pending.put(name, value);
+    }
+
+    @Override
+    public void commit() {
+        scores.putAll(pending);
+        pending.clear();
+    }
+
+    @Override
+    public boolean loadDigraphs(DigraphModel model) {
+        if (digraphs == null) {
+            return false;
+        }
+        try {
+            model.readFrom(new DataInputStream(new ByteArrayInputStream(digraphs)));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void saveDigraphs(DigraphModel model) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            model.writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // cannot happen with an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        digraphs = bytes.toByteArray();
+    }
+}
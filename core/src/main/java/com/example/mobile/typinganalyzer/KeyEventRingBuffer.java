@@ -0,0 +1,92 @@
+package com.example.mobile.typinganalyzer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* A bounded single-producer/single-consumer ring buffer for key events. The UI thread is the only
+ * producer and the analysis worker is the only consumer, so the two sides never contend on the
+ * same counter and no locks are needed. Each event is stored in parallel primitive arrays, which
+ * keeps the enqueue path free of allocation. When the buffer is full the event is dropped and
+ * counted instead of blocking the UI thread.
+ */
+public class KeyEventRingBuffer {
+
+    /* receives the events drained from the buffer */
+    public interface Handler {
+        void onKeyEvent(int code, long duration, long eventTime);
+    }
+
+    private final int mask;
+    private final int[] codes;
+    private final long[] durations;
+    private final long[] eventTimes;
+
+    // next slot to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next slot to write, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public KeyEventRingBuffer(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        codes = new int[capacity];
+        durations = new long[capacity];
+        eventTimes = new long[capacity];
+    }
+
+    /* Adds an event to the buffer. Returns false (and counts the drop) if the consumer has fallen
+     * a full buffer behind. Must only be called from the producer thread.
+     */
+    public boolean offer(int code, long duration, long eventTime) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int)t & mask;
+        codes[slot] = code;
+        durations[slot] = duration;
+        eventTimes[slot] = eventTime;
+        // publish the slot contents before the new tail becomes visible
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /* Hands every available event to the handler in order and returns how many were drained.
+     * Must only be called from the consumer thread.
+     */
+    public int drain(Handler handler) {
+        long h = head.get();
+        long t = tail.get();
+        int n = 0;
+        while (h < t) {
+            int slot = (int)h & mask;
+            handler.onKeyEvent(codes[slot], durations[slot], eventTimes[slot]);
+            ++h;
+            ++n;
+            // free the slot as soon as it has been consumed
+            head.lazySet(h);
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /* number of events waiting to be consumed */
+    public int size() {
+        return (int)(tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /* number of events rejected because the buffer was full */
+    public long droppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.mobile.typinganalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/* An append-only log of every key as it was typed, so profiles can be rebuilt or another model
+ * trained from the raw timings later. The running averages of the profiles cannot give those back.
+ *
+ * The log is a directory of segment files (keys-0000000001.seg, ...) of a fixed number of
+ * fixed-width little-endian records:
+ *
+ *     int keycode, long press time, int dwell, int flight     (RECORD_SIZE bytes)
+ *
+ * The press time is on the time base of the key events, the dwell is how long the key was held
+ * and the flight the time from the release of the previous key to this press, which is negative
+ * when keys overlap and -1 for the first key of a log. A segment starts with a header of magic,
+ * version, record size and the number of records written so far.
+ *
+ * The current segment is memory mapped, so an append is a few stores into the mapping: no
+ * allocation and no system call. Once a segment is full the next one is mapped and the oldest
+ * segments beyond maxSegments are deleted. The data reaches the file as soon as the kernel writes
+ * the pages back, even if the process dies; sync() forces it out.
+ *
+ * The writer is not thread safe. Cursors read the segments in place, also through mappings.
+ */
+public class KeystrokeLog {
+    static final int MAGIC = 0x4c4b4154; // "TAKL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 20;
+    private static final int COUNT_OFFSET = 12;
+    private static final String PREFIX = "keys-";
+    private static final String SUFFIX = ".seg";
+
+    private final File dir;
+    private final int segmentRecords;
+    private final int maxSegments;
+    private MappedByteBuffer segment;
+    private long segmentNumber;
+    // records the current segment has room for
+    private int capacity;
+    private int count;
+    private long lastRelease = -1;
+
+    /* Opens the log in dir, continuing the newest segment if it has room. */
+    public KeystrokeLog(File dir, int segmentRecords, int maxSegments) throws IOException {
+        if (segmentRecords <= 0 || maxSegments <= 0) {
+            throw new IllegalArgumentException("segments must hold at least one record");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+        File[] segments = segments(dir);
+        if (segments.length > 0) {
+            File newest = segments[segments.length - 1];
+            segmentNumber = segmentNumber(newest);
+            if (reopen(newest)) {
+                return;
+            }
+        }
+        openSegment(segmentNumber + 1);
+    }
+
+    /* Logs a key handed to the analyzer: its code, how long it was held and when it was released. */
+    public void append(int keycode, long duration, long releaseTime) throws IOException {
+        if (count == capacity) {
+            segment.force();
+            openSegment(segmentNumber + 1);
+        }
+        long press = releaseTime - duration;
+        int offset = HEADER_SIZE + count*RECORD_SIZE;
+        segment.putInt(offset, keycode);
+        segment.putLong(offset + 4, press);
+        segment.putInt(offset + 12, clamp(duration));
+        segment.putInt(offset + 16, lastRelease < 0 ? -1 : clamp(press - lastRelease));
+        // the count goes last, so a reader never sees a record that is not complete
+        segment.putInt(COUNT_OFFSET, ++count);
+        lastRelease = releaseTime;
+    }
+
+    /* forces the written records out to the storage */
+    public void sync() {
+        segment.force();
+    }
+
+    public void close() {
+        sync();
+        // Java cannot unmap explicitly, the mapping goes away with the buffer
+        segment = null;
+    }
+
+    /* number of records in the current segment */
+    public int getSegmentCount() {
+        return count;
+    }
+
+    /* a cursor over all records of the log in dir, oldest first */
+    public static Cursor read(File dir) {
+        return new Cursor(segments(dir));
+    }
+
+    /* Iterates over the records of a list of segments without copying them: the accessors read
+     * the current record straight out of the mapped segment.
+     */
+    public static final class Cursor {
+        private final File[] segments;
+        private int next;
+        private ByteBuffer segment;
+        private int count;
+        private int offset;
+        private int index = -1;
+
+        Cursor(File[] segments) {
+            this.segments = segments;
+        }
+
+        /* moves to the next record, returns false at the end of the log */
+        public boolean next() throws IOException {
+            while (segment == null || index + 1 >= count) {
+                if (next == segments.length) {
+                    segment = null;
+                    return false;
+                }
+                map(segments[next++]);
+            }
+            ++index;
+            offset = HEADER_SIZE + index*RECORD_SIZE;
+            return true;
+        }
+
+        public int keycode() {
+            return segment.getInt(offset);
+        }
+
+        public long pressTime() {
+            return segment.getLong(offset + 4);
+        }
+
+        public int dwell() {
+            return segment.getInt(offset + 12);
+        }
+
+        public int flight() {
+            return segment.getInt(offset + 16);
+        }
+
+        public long releaseTime() {
+            return pressTime() + dwell();
+        }
+
+        private void map(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            } finally {
+                raf.close();
+            }
+            index = -1;
+            if (segment.capacity() < HEADER_SIZE) {
+                // created but never set up, the writer died right there
+                count = 0;
+                return;
+            }
+            checkHeader(segment, file);
+            count = Math.min(segment.getInt(COUNT_OFFSET), (segment.capacity() - HEADER_SIZE)/RECORD_SIZE);
+        }
+    }
+
+    private boolean reopen(File file) throws IOException {
+        MappedByteBuffer mapped = map(file, 0);
+        try {
+            checkHeader(mapped, file);
+        } catch (IOException e) {
+            // a segment that was never completely set up, start a fresh one after it
+            return false;
+        }
+        int records = (mapped.capacity() - HEADER_SIZE)/RECORD_SIZE;
+        int written = mapped.getInt(COUNT_OFFSET);
+        if (written < 0 || written >= records) {
+            return false;
+        }
+        segment = mapped;
+        capacity = records;
+        count = written;
+        if (count > 0) {
+            int last = HEADER_SIZE + (count - 1)*RECORD_SIZE;
+            lastRelease = segment.getLong(last + 4) + segment.getInt(last + 12);
+        }
+        return true;
+    }
+
+    private void openSegment(long number) throws IOException {
+        File file = new File(dir, segmentName(number));
+        segment = map(file, HEADER_SIZE + (long)segmentRecords*RECORD_SIZE);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putInt(8, RECORD_SIZE);
+        segment.putInt(COUNT_OFFSET, 0);
+        segmentNumber = number;
+        capacity = segmentRecords;
+        count = 0;
+        deleteOldSegments();
+    }
+
+    private void deleteOldSegments() {
+        File[] segments = segments(dir);
+        for (int i = 0; i < segments.length - maxSegments; ++i) {
+            segments[i].delete();
+        }
+    }
+
+    /* maps the whole file for writing, growing it to size first if size > 0 */
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (size > 0) {
+                raf.setLength(size);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer, File file) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a keystroke log segment: " + file);
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+            throw new IOException("unsupported keystroke log segment: " + file);
+        }
+    }
+
+    private static int clamp(long value) {
+        return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private static String segmentName(long number) {
+        return PREFIX + String.format(Locale.US, "%010d", number) + SUFFIX;
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /* the segment files in dir, oldest first */
+    public static File[] segments(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int n = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX) && name.length() == PREFIX.length() + 10 + SUFFIX.length()
+                    && isNumber(name, PREFIX.length(), PREFIX.length() + 10)) {
+                files[n++] = file;
+            }
+        }
+        files = Arrays.copyOf(files, n);
+        // the numbers are zero padded, so the names sort by number
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static boolean isNumber(String s, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.mobile.typinganalyzer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* A fixed-size histogram of durations in nanoseconds. Each power of two is split into
+ * SUB_BUCKETS linear buckets, so a percentile is off by at most 1/SUB_BUCKETS (12.5%) of its value
+ * while the whole range from 1 ns to about 36 minutes fits in a few hundred counters. Recording is
+ * lock free and never allocates, so any thread can record while another one reads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // values from 2^MAX_EXPONENT ns (about 36 minutes) up all land in the last bucket
+    private static final int MAX_EXPONENT = 41;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1)*SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /* mean in nanoseconds, 0 if nothing was recorded */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double)sum.get()/n;
+    }
+
+    /* The smallest bucket bound below which at least the fraction q of the recorded values lie,
+     * e.g. percentile(0.99) for the p99, or 0 if nothing was recorded. Reads the buckets once, so
+     * values recorded meanwhile may or may not be included.
+     */
+    public long percentile(double q) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(q*total);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /* forgets everything recorded so far; values recorded at the same time may be lost */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /* Values below SUB_BUCKETS get a bucket each; above that the bucket is given by the position
+     * of the highest bit and the SUB_BITS bits right below it.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1)*SUB_BUCKETS + sub;
+    }
+
+    /* the largest value that falls into the bucket */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket/SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket%SUB_BUCKETS;
+        long lower = (1L << exponent) | ((long)sub << (exponent - SUB_BITS));
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.mobile.typinganalyzer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* The latency histograms and counters of the stages on the way from a key release to a score.
+ * The stages register their histograms and counters once, when they are built, and keep the
+ * references, so recording never goes through the registry. Recording is lock free; only
+ * registering and dumping take the lock.
+ */
+public class Metrics {
+    private final List<LatencyHistogram> histograms = new ArrayList<>();
+    private final List<String> counterNames = new ArrayList<>();
+    private final List<AtomicLong> counters = new ArrayList<>();
+
+    /* returns the histogram of that name, creating it the first time */
+    public synchronized LatencyHistogram histogram(String name) {
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getName().equals(name)) {
+                return histogram;
+            }
+        }
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    /* returns the counter of that name, creating it the first time */
+    public synchronized AtomicLong counter(String name) {
+        int i = counterNames.indexOf(name);
+        if (i >= 0) {
+            return counters.get(i);
+        }
+        AtomicLong counter = new AtomicLong();
+        counterNames.add(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    /* Writes a table of every histogram, with the times in microseconds, followed by the
+     * counters. This is what dumpsys shows and what goes into a snapshot file.
+     */
+    public synchronized void writeTo(PrintWriter out) {
+        out.println(String.format(Locale.US, "%-16s %10s %10s %10s %10s %10s %10s",
+                "stage", "count", "mean us", "p50 us", "p99 us", "p999 us", "max us"));
+        for (LatencyHistogram histogram : histograms) {
+            out.println(String.format(Locale.US, "%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f",
+                    histogram.getName(), histogram.getCount(), histogram.getMean()/1000,
+                    histogram.percentile(0.5)/1000.0, histogram.percentile(0.99)/1000.0,
+                    histogram.percentile(0.999)/1000.0, histogram.getMax()/1000.0));
+        }
+        for (int i = 0; i < counters.size(); ++i) {
+            out.println(String.format(Locale.US, "%-16s %10d", counterNames.get(i), counters.get(i).get()));
+        }
+    }
+
+    /* starts over, e.g. to measure one typing session on its own */
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (AtomicLong counter : counters) {
+            counter.set(0);
+        }
+    }
+}
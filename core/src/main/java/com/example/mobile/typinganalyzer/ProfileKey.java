@@ -0,0 +1,37 @@
+package com.example.mobile.typinganalyzer;
+
+/* The key of a profile in the TimeProfileCache: the partition and the word. Lookups go through a
+ * single mutable probe key that is set for every lookup, so finding a cached profile allocates
+ * nothing; only keys that go into a map are created as new objects. The partition and word Strings
+ * are shared, so creating a key copies no characters either.
+ */
+final class ProfileKey {
+    String partition;
+    String word;
+    private int hash;
+
+    ProfileKey(String partition, String word) {
+        set(partition, word);
+    }
+
+    ProfileKey set(String partition, String word) {
+        this.partition = partition;
+        this.word = word;
+        hash = 31*partition.hashCode() + word.hashCode();
+        return this;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ProfileKey)) {
+            return false;
+        }
+        ProfileKey other = (ProfileKey)o;
+        return hash == other.hash && word.equals(other.word) && partition.equals(other.partition);
+    }
+}
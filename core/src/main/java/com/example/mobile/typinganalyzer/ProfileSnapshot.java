@@ -0,0 +1,172 @@
+package com.example.mobile.typinganalyzer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/* A compact binary snapshot of everything the analyzer has learned, for moving a user's model to
+ * another device or restoring it after a reinstall or a schema change. It does not depend on the
+ * database layout: the profiles are stored with their TimingCodec blobs as they are.
+ *
+ *     int     MAGIC, VERSION
+ *     double  score, keystroke score
+ *     ...     the digraph model, as DigraphModel.writeTo()
+ *     records UTF partition, UTF word, int count, int blob length, blob
+ *     UTF     "" as the word to end the records (the partition is "" too)
+ *     int     number of records
+ *     long    CRC32 of everything before it
+ *
+ * Version 1 snapshots had no partitions; their records are all read as being in
+ * AnalyzerCore.GLOBAL_PARTITION.
+ *
+ * Writer and Reader stream one record at a time, so neither holds more than one profile in
+ * memory. The Reader only vouches for the records once next() has returned false, which is when
+ * the count and the checksum are checked; whoever imports should not commit anything before.
+ */
+public final class ProfileSnapshot {
+    // "TAPS"
+    public static final int MAGIC = 0x54415053;
+    public static final int VERSION = 2;
+    // far more than any word needs, only there to catch corrupt lengths early
+    private static final int MAX_BLOB_SIZE = 1 << 16;
+
+    private ProfileSnapshot() {}
+
+    public static class Writer {
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream out;
+        private int records;
+
+        /* writes the header, the scores and the digraph model */
+        public Writer(OutputStream stream, double score, double keystrokeScore, DigraphModel digraphs) throws IOException {
+            out = new DataOutputStream(new CheckedOutputStream(stream, crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(score);
+            out.writeDouble(keystrokeScore);
+            digraphs.writeTo(out);
+        }
+
+        public void write(String partition, String word, int count, byte[] blob) throws IOException {
+            if (word.isEmpty()) {
+                throw new IllegalArgumentException("empty word");
+            }
+            out.writeUTF(partition);
+            out.writeUTF(word);
+            out.writeInt(count);
+            out.writeInt(blob.length);
+            out.write(blob);
+            records++;
+        }
+
+        /* writes the trailer and flushes, the stream is left open */
+        public void finish() throws IOException {
+            out.writeUTF("");
+            out.writeUTF("");
+            out.writeInt(records);
+            out.writeLong(crc.getValue());
+            out.flush();
+        }
+
+        public int getRecordCount() {
+            return records;
+        }
+    }
+
+    public static class Reader {
+        private final CRC32 crc = new CRC32();
+        private final DataInputStream in;
+        private final double score;
+        private final double keystrokeScore;
+        private final int version;
+        private int records;
+        private boolean done;
+        private String partition = AnalyzerCore.GLOBAL_PARTITION;
+        private String word;
+        private int count;
+        private byte[] blob;
+
+        /* reads the header and the scores, and the digraph model into digraphs */
+        public Reader(InputStream stream, DigraphModel digraphs) throws IOException {
+            in = new DataInputStream(new CheckedInputStream(stream, crc));
+            int magic = in.readInt();
+            version = in.readInt();
+            if (magic != MAGIC) {
+                throw new IOException("not a profile snapshot");
+            }
+            if (version < 1 || version > VERSION) {
+                throw new IOException("unsupported snapshot version " + version);
+            }
+            score = in.readDouble();
+            keystrokeScore = in.readDouble();
+            digraphs.readFrom(in);
+        }
+
+        /* Moves to the next record. Returns false at the end, once the snapshot is known to be
+         * complete and intact; throws IOException if it is not.
+         */
+        public boolean next() throws IOException {
+            if (done) {
+                return false;
+            }
+            if (version >= 2) {
+                partition = in.readUTF();
+                if (partition.isEmpty()) {
+                    partition = AnalyzerCore.GLOBAL_PARTITION;
+                }
+            }
+            word = in.readUTF();
+            if (word.isEmpty()) {
+                int written = in.readInt();
+                long expected = crc.getValue();
+                if (written != records || in.readLong() != expected) {
+                    throw new IOException("corrupt snapshot");
+                }
+                done = true;
+                return false;
+            }
+            count = in.readInt();
+            int size = in.readInt();
+            if (count < 0 || size <= 0 || size > MAX_BLOB_SIZE) {
+                throw new IOException("corrupt snapshot");
+            }
+            blob = new byte[size];
+            in.readFully(blob);
+            records++;
+            return true;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public double getKeystrokeScore() {
+            return keystrokeScore;
+        }
+
+        public String partition() {
+            return partition;
+        }
+
+        public String word() {
+            return word;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public byte[] blob() {
+            return blob;
+        }
+
+        public int getRecordCount() {
+            return records;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.mobile.typinganalyzer;
+
+/* Where the word profiles are persisted. Reads happen one word at a time on a cache miss; writes
+ * always come in batches from a flush of the TimeProfileCache and must be applied atomically.
+ * Every profile belongs to a partition (see AnalyzerCore.GLOBAL_PARTITION), and the same word has
+ * separate profiles in separate partitions.
+ */
+public interface ProfileStore {
+    /* returns the stored profile of the word in the partition, or null if it has never been written */
+    WordProfile load(String partition, String word);
+
+    /* starts a batch of writes */
+    void beginWrite();
+
+    /* Writes a profile as part of the current batch; a new profile (id < 0) gets its id here. The
+     * TimeProfileCache takes the id back if the batch is not committed.
+     */
+    void write(String partition, String word, WordProfile profile);
+
+    /* ends the batch, keeping the writes only if successful is true */
+    void endWrite(boolean successful);
+}
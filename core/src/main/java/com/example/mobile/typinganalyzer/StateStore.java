@@ -0,0 +1,20 @@
+package com.example.mobile.typinganalyzer;
+
+/* Where the analyzer keeps the state that is not tied to a word: the scores and the digraph
+ * model. Everything is saved from a flush, so implementations may buffer the scores until
+ * commit().
+ */
+public interface StateStore {
+    /* returns the saved score of that name, or 0 */
+    double loadScore(String name);
+
+    void saveScore(String name, double value);
+
+    /* makes the saved scores durable */
+    void commit();
+
+    /* fills the model with the saved statistics, returns false if there were none */
+    boolean loadDigraphs(DigraphModel model);
+
+    void saveDigraphs(DigraphModel model);
+}
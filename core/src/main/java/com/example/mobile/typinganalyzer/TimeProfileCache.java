@@ -0,0 +1,158 @@
+package com.example.mobile.typinganalyzer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* A bounded LRU cache of decoded word profiles in front of a ProfileStore. The word list is
+ * heavily skewed towards a few hundred common words, so almost every lookup is served from
+ * memory. Changes are made to the cached profile in place and only written back to the store
+ * when the cache is flushed, all in one batch. Dirty profiles that get evicted in the
+ * meantime are parked until the next flush so they are neither lost nor re-read stale.
+ *
+ * Profiles are cached by partition and word together, so the partitions in use share the one
+ * capacity: the words of the apps typed in recently stay in memory, the others are paged in again
+ * from the store when needed, and the memory taken does not grow with the number of apps.
+ *
+ * The cache is not thread safe; it is only used from the analysis worker thread. The counters
+ * can be read from any thread.
+ */
+public class TimeProfileCache {
+    private final ProfileStore store;
+    private final LinkedHashMap<ProfileKey, WordProfile> entries;
+    // dirty profiles evicted since the last flush
+    private final HashMap<ProfileKey, WordProfile> evicted = new HashMap<>();
+    // reused for every lookup
+    private final ProfileKey probe = new ProfileKey("", "");
+    // the profiles that got their id in the current batch
+    private final ArrayList<WordProfile> inserted = new ArrayList<>();
+
+    private volatile long hits;
+    private volatile long misses;
+    private volatile long evictions;
+
+    public TimeProfileCache(ProfileStore store, final int capacity) {
+        this.store = store;
+        entries = new LinkedHashMap<ProfileKey, WordProfile>(capacity*4/3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ProfileKey, WordProfile> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                evictions++;
+                if (eldest.getValue().dirty) {
+                    evicted.put(eldest.getKey(), eldest.getValue());
+                }
+                return true;
+            }
+        };
+    }
+
+    /* Returns the profile for the word in the partition, reading it from the store on a miss, or
+     * null if the word has never been seen there.
+     */
+    public WordProfile get(String partition, String word) {
+        WordProfile profile = entries.get(probe.set(partition, word));
+        if (profile != null) {
+            hits++;
+            return profile;
+        }
+        misses++;
+        profile = evicted.remove(probe);
+        if (profile == null) {
+            profile = store.load(partition, word);
+        }
+        if (profile != null) {
+            entries.put(new ProfileKey(partition, word), profile);
+        }
+        return profile;
+    }
+
+    /* Adds a new word to the partition with the TimingStats sums of its first sample. It is
+     * written on the next flush. The word must not already be in the cache.
+     */
+    public WordProfile put(String partition, String word, long[] sums) {
+        WordProfile profile = new WordProfile(-1, 1, sums);
+        profile.dirty = true;
+        entries.put(new ProfileKey(partition, word), profile);
+        return profile;
+    }
+
+    /* Writes every dirty profile back to the store in a single batch, so a flush costs one
+     * journal sync no matter how many words changed. The profiles only count as clean once the
+     * whole batch went through; if it fails they stay dirty and are written on the next flush.
+     */
+    public void flush() {
+        boolean successful = false;
+        store.beginWrite();
+        try {
+            writeBackAll(evicted);
+            writeBackAll(entries);
+            successful = true;
+        } finally {
+            endWrite(successful);
+        }
+        evicted.clear();
+        markClean(entries);
+    }
+
+    /* Ends the batch. New profiles only keep the ids they were given in it if it was committed;
+     * otherwise their rows are gone and they have to be inserted again on the next flush.
+     */
+    private void endWrite(boolean successful) {
+        boolean committed = false;
+        try {
+            store.endWrite(successful);
+            committed = successful;
+        } finally {
+            if (!committed) {
+                for (WordProfile profile : inserted) {
+                    profile.id = -1;
+                }
+            }
+            inserted.clear();
+        }
+    }
+
+    /* Drops every cached profile, so they are read from the store again, e.g. after rows were
+     * deleted or rewritten behind the cache. Must be flushed first.
+     */
+    public void clear() {
+        evicted.clear();
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    private void writeBackAll(Map<ProfileKey, WordProfile> profiles) {
+        Iterator<Map.Entry<ProfileKey, WordProfile>> it = profiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ProfileKey, WordProfile> entry = it.next();
+            WordProfile profile = entry.getValue();
+            if (profile.dirty) {
+                if (profile.id < 0) {
+                    inserted.add(profile);
+                }
+                store.write(entry.getKey().partition, entry.getKey().word, profile);
+            }
+        }
+    }
+
+    private void markClean(Map<ProfileKey, WordProfile> profiles) {
+        for (WordProfile profile : profiles.values()) {
+            profile.dirty = false;
+        }
+    }
+}
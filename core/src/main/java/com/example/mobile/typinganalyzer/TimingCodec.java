@@ -0,0 +1,115 @@
+package com.example.mobile.typinganalyzer;
+
+/* Packs the TimingStats sums of a word profile into the BLOB stored in the timings column. The
+ * layout is a single format byte followed by each long as 8 little-endian bytes, in the same order
+ * as the WordProfile sums array. The bytes are written by hand so that neither direction needs a
+ * ByteBuffer per call.
+ *
+ * Decayed profiles (FORMAT_DECAYED) hold the weight followed by the averages and variances, all as
+ * the little-endian bits of doubles. Databases before version 4 stored the averages and variances
+ * of every profile as doubles (FORMAT_AVG_VAR); decodeAvgVar() reads those for the migration.
+ */
+public final class TimingCodec {
+    public static final byte FORMAT_AVG_VAR = 1;
+    public static final byte FORMAT_SUMS = 2;
+    public static final byte FORMAT_DECAYED = 3;
+    private static final int HEADER_SIZE = 1;
+
+    private TimingCodec() {}
+
+    /* size in bytes of the blob holding the given number of sums */
+    public static int blobSize(int sumsLength) {
+        return HEADER_SIZE + 8*sumsLength;
+    }
+
+    /* number of values held by a blob of the given size */
+    public static int sumsLength(byte[] blob) {
+        return (blob.length - HEADER_SIZE) >> 3;
+    }
+
+    /* Encodes the sums into reuse if it has exactly the right size, otherwise into a new array.
+     * Returns the array that was written.
+     */
+    public static byte[] encode(long[] sums, byte[] reuse) {
+        int size = blobSize(sums.length);
+        byte[] blob = reuse != null && reuse.length == size ? reuse : new byte[size];
+        blob[0] = FORMAT_SUMS;
+        for (int i = 0; i < sums.length; ++i) {
+            writeLong(blob, HEADER_SIZE + 8*i, sums[i]);
+        }
+        return blob;
+    }
+
+    /* Encodes the profile in the format of its mode, into reuse if it has exactly the right size,
+     * otherwise into a new array. Returns the array that was written.
+     */
+    public static byte[] encode(WordProfile profile, byte[] reuse) {
+        if (!profile.isDecayed()) {
+            return encode(profile.sums, reuse);
+        }
+        double[] timings = profile.timings;
+        int size = blobSize(timings.length + 1);
+        byte[] blob = reuse != null && reuse.length == size ? reuse : new byte[size];
+        blob[0] = FORMAT_DECAYED;
+        writeLong(blob, HEADER_SIZE, Double.doubleToLongBits(profile.weight));
+        for (int i = 0; i < timings.length; ++i) {
+            writeLong(blob, HEADER_SIZE + 8*(i + 1), Double.doubleToLongBits(timings[i]));
+        }
+        return blob;
+    }
+
+    /* decodes a stored profile of either mode */
+    public static WordProfile decodeProfile(long id, int count, byte[] blob) {
+        if (blob[0] != FORMAT_DECAYED) {
+            return new WordProfile(id, count, decode(blob));
+        }
+        double[] timings = new double[sumsLength(blob) - 1];
+        for (int i = 0; i < timings.length; ++i) {
+            timings[i] = Double.longBitsToDouble(readLong(blob, HEADER_SIZE + 8*(i + 1)));
+        }
+        return new WordProfile(id, count, Double.longBitsToDouble(readLong(blob, HEADER_SIZE)), timings);
+    }
+
+    /* Decodes the blob into sums, which must hold at least sumsLength(blob) values. */
+    public static void decode(byte[] blob, long[] sums) {
+        if (blob[0] != FORMAT_SUMS) {
+            throw new IllegalArgumentException("unknown timings format: " + blob[0]);
+        }
+        int n = sumsLength(blob);
+        for (int i = 0; i < n; ++i) {
+            sums[i] = readLong(blob, HEADER_SIZE + 8*i);
+        }
+    }
+
+    public static long[] decode(byte[] blob) {
+        long[] sums = new long[sumsLength(blob)];
+        decode(blob, sums);
+        return sums;
+    }
+
+    /* reads a blob of the old format, the averages and variances as doubles */
+    public static double[] decodeAvgVar(byte[] blob) {
+        if (blob[0] != FORMAT_AVG_VAR) {
+            throw new IllegalArgumentException("not an average/variance blob: " + blob[0]);
+        }
+        double[] timings = new double[sumsLength(blob)];
+        for (int i = 0; i < timings.length; ++i) {
+            timings[i] = Double.longBitsToDouble(readLong(blob, HEADER_SIZE + 8*i));
+        }
+        return timings;
+    }
+
+    private static void writeLong(byte[] blob, int pos, long bits) {
+        for (int b = 0; b < 8; ++b) {
+            blob[pos++] = (byte)(bits >>> (b << 3));
+        }
+    }
+
+    private static long readLong(byte[] blob, int pos) {
+        long bits = 0;
+        for (int b = 0; b < 8; ++b) {
+            bits |= (blob[pos++] & 0xffL) << (b << 3);
+        }
+        return bits;
+    }
+}
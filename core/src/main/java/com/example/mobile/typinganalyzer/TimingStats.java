@@ -0,0 +1,103 @@
+package com.example.mobile.typinganalyzer;
+
+/* The statistics of a word profile, kept as exact sufficient statistics: for every timing the sum
+ * and the sum of squares of the samples, as longs, next to the sample count of the word. The
+ * samples are whole milliseconds, so adding a sample and combining two profiles are plain integer
+ * additions. Unlike running averages and variances, nothing drifts however many samples come in,
+ * and combining partial profiles gives the same bits whatever way they were split up and in
+ * whatever order they are combined.
+ *
+ * The count, mean and M2 (sum of squared deviations) of Chan et al. follow from the sums exactly:
+ * mean = sum/count and M2 = sumSq - sum*sum/count, evaluated below without the cancellation of
+ * the textbook formula. Samples are clamped to MAX_SAMPLE, which keeps the sums of squares of up
+ * to 2^23 samples within a long.
+ *
+ * Sums are in WordProfile order, two longs per timing: sum0, sumSq0, sum1, sumSq1, ...
+ */
+public final class TimingStats {
+    // about 17 minutes, longer pauses within a word carry no more information
+    public static final long MAX_SAMPLE = 1L << 20;
+
+    private TimingStats() {}
+
+    /* the sums of a word whose only sample is the given one */
+    public static long[] initial(long[] samples, int length) {
+        long[] sums = new long[WordProfile.timingsLength(length)];
+        add(sums, samples);
+        return sums;
+    }
+
+    /* adds one sample per timing */
+    public static void add(long[] sums, long[] samples) {
+        for (int i = 0; i < sums.length; i += 2) {
+            long value = clamp(samples[i>>1]);
+            sums[i] += value;
+            sums[i + 1] += value*value;
+        }
+    }
+
+    /* adds the sums of another profile of the same word */
+    public static void merge(long[] into, long[] from) {
+        if (into.length != from.length) {
+            throw new IllegalArgumentException("profiles of different lengths");
+        }
+        for (int i = 0; i < into.length; ++i) {
+            into[i] += from[i];
+        }
+    }
+
+    public static double mean(long sum, int count) {
+        return count == 0 ? 0 : (double)sum/count;
+    }
+
+    /* Sum of squared deviations from the mean. With sum = q*count + r, sum*sum/count is
+     * q*sum + r*sum/count; the first part is subtracted in exact integer arithmetic, so only the
+     * small remainder goes through floating point.
+     */
+    public static double m2(long sum, long sumSq, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        long q = sum/count;
+        long r = sum%count;
+        double m2 = (double)(sumSq - q*sum) - (double)r*sum/count;
+        return m2 < 0 ? 0 : m2;
+    }
+
+    /* fills timings with the mean and population variance of every timing */
+    public static void toTimings(long[] sums, int count, double[] timings) {
+        for (int i = 0; i < sums.length; i += 2) {
+            timings[i] = mean(sums[i], count);
+            timings[i + 1] = count == 0 ? 0 : m2(sums[i], sums[i + 1], count)/count;
+        }
+    }
+
+    /* Rebuilds sums from a mean and population variance per timing, for profiles stored before the
+     * sums were. The result is as close as whole-millisecond sums can get.
+     */
+    public static long[] fromTimings(double[] timings, int count) {
+        long[] sums = new long[timings.length];
+        for (int i = 0; i < timings.length; i += 2) {
+            double mean = timings[i];
+            double variance = Math.max(timings[i + 1], 0);
+            sums[i] = Math.round(mean*count);
+            sums[i + 1] = Math.round(count*(variance + mean*mean));
+        }
+        return sums;
+    }
+
+    /* Scales the sums of count samples down to newCount samples, as if the profile had seen
+     * newCount samples with the same means and variances. The means and variances are kept up to
+     * the rounding to whole sums.
+     */
+    public static void scale(long[] sums, int count, int newCount) {
+        double factor = (double)newCount/count;
+        for (int i = 0; i < sums.length; ++i) {
+            sums[i] = Math.round(sums[i]*factor);
+        }
+    }
+
+    static long clamp(long value) {
+        return value < 0 ? 0 : value > MAX_SAMPLE ? MAX_SAMPLE : value;
+    }
+}
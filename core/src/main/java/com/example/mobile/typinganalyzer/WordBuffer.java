@@ -0,0 +1,68 @@
+package com.example.mobile.typinganalyzer;
+
+/* The word currently being typed and its key timings, kept in reusable primitive arrays so that
+ * adding a key does not allocate. The timings are in WordProfile order without the variances:
+ * duration of the first key, latency to the second key, duration of the second key, and so on,
+ * so a word of n letters has 2n - 1 timings. The arrays only grow when a longer word than any
+ * seen before comes along.
+ */
+public class WordBuffer {
+    private char[] chars;
+    private long[] timings;
+    private int length;
+
+    public WordBuffer(int initialCapacity) {
+        chars = new char[initialCapacity];
+        timings = new long[2*initialCapacity - 1];
+    }
+
+    /* Adds a letter. The latency is the time since the previous key and is ignored for the first
+     * letter of the word.
+     */
+    public void append(char c, long latency, long duration) {
+        if (length == chars.length) {
+            grow();
+        }
+        if (length > 0) {
+            timings[2*length - 1] = latency;
+        }
+        timings[2*length] = duration;
+        chars[length++] = c;
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /* backing array of the letters, only the first length() are valid */
+    public char[] chars() {
+        return chars;
+    }
+
+    /* backing array of the timings, only the first timingsLength() are valid */
+    public long[] timings() {
+        return timings;
+    }
+
+    public int timingsLength() {
+        return length == 0 ? 0 : 2*length - 1;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private void grow() {
+        char[] newChars = new char[chars.length*2];
+        System.arraycopy(chars, 0, newChars, 0, length);
+        chars = newChars;
+        long[] newTimings = new long[2*newChars.length - 1];
+        System.arraycopy(timings, 0, newTimings, 0, timingsLength());
+        timings = newTimings;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.mobile.typinganalyzer;
+
+import java.util.Iterator;
+
+/* The time profile of a single word. The timings are kept in the same order as the timings of
+ * WordBuffer: for each letter its key press duration, followed (except for the last letter) by the
+ * latency to the next key. The profile stores the exact TimingStats sums of every timing and
+ * derives from them, for scoring, the average and variance of each: d0_avg, d0_var, l0_avg,
+ * l0_var, d1_avg, ...
+ *
+ * Profiles of the same word can be merged, e.g. the profiles of several devices or of shards of a
+ * batch recomputation, and the result does not depend on how the samples were split up.
+ *
+ * A profile can instead be decayed, for AnalyzerConfig.halfLife: then it keeps no sums, only the
+ * exponentially weighted averages and variances and the weight of the samples behind them, so old
+ * samples fade out and the profile follows a change in typing. Its size stays the same however
+ * many samples come in, and a profile switches over on its next update when the mode changes.
+ * Decayed profiles depend on the order of their samples and cannot be merged.
+ */
+public class WordProfile {
+    // row id in the database, or -1 if the word has not been written yet
+    long id;
+    int count;
+    // TimingStats sums, or null if the profile is decayed
+    long[] sums;
+    // averages and variances, derived from the sums unless the profile is decayed
+    final double[] timings;
+    // decayed profiles: the total weight of the samples, at most 1/(1 - retention)
+    double weight;
+    // true if the profile has changes that are not in the database yet
+    boolean dirty;
+
+    WordProfile(long id, int count, long[] sums) {
+        this.id = id;
+        this.count = count;
+        this.sums = sums;
+        timings = new double[sums.length];
+        TimingStats.toTimings(sums, count, timings);
+    }
+
+    /* a decayed profile */
+    WordProfile(long id, int count, double weight, double[] timings) {
+        this.id = id;
+        this.count = count;
+        this.weight = weight;
+        this.timings = timings;
+    }
+
+    /* a new profile of a word that has been typed once */
+    public static WordProfile of(long[] samples, int length) {
+        return new WordProfile(-1, 1, TimingStats.initial(samples, length));
+    }
+
+    /* number of timings (averages and variances) for a word of the given length */
+    static int timingsLength(int wordLength) {
+        return 4*wordLength - 2;
+    }
+
+    /* adds one sample per timing; a decayed profile is turned back into sums first */
+    public void add(long[] samples) {
+        if (sums == null) {
+            sums = TimingStats.fromTimings(timings, count);
+            weight = 0;
+        }
+        TimingStats.add(sums, samples);
+        count++;
+        TimingStats.toTimings(sums, count, timings);
+    }
+
+    /* Adds one sample per timing to a decayed profile, after discounting the weight of the
+     * earlier samples by retention (DecayedStats.retention()). Cumulative profiles are decayed
+     * from here on, starting with the weight of all their samples, but no more than the weight a
+     * decayed profile settles at, so a mature profile follows drift as soon as it is switched.
+     */
+    public void addDecayed(long[] samples, double retention) {
+        if (sums != null) {
+            sums = null;
+            weight = Math.min(count, 1/(1 - retention));
+        }
+        weight = DecayedStats.add(timings, weight, retention, samples);
+        count++;
+    }
+
+    public boolean isDecayed() {
+        return sums == null;
+    }
+
+    /* adds another profile of the same word to this one */
+    public void merge(WordProfile other) {
+        checkMergeable(this);
+        checkMergeable(other);
+        TimingStats.merge(sums, other.sums);
+        count += other.count;
+        TimingStats.toTimings(sums, count, timings);
+    }
+
+    /* Combines any number of profiles of the same word into a new one, adding all sums before
+     * deriving the timings once. Returns null if there are none.
+     */
+    public static WordProfile combine(Iterable<WordProfile> parts) {
+        Iterator<WordProfile> it = parts.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        WordProfile first = it.next();
+        checkMergeable(first);
+        long[] sums = first.sums.clone();
+        int count = first.count;
+        while (it.hasNext()) {
+            WordProfile part = it.next();
+            checkMergeable(part);
+            TimingStats.merge(sums, part.sums);
+            count += part.count;
+        }
+        return new WordProfile(-1, count, sums);
+    }
+
+    /* Caps the count at maxCount, for maintenance: a cumulative profile is scaled down to
+     * maxCount samples with the same averages and variances, so its sums stay far from overflowing
+     * and new samples keep some weight. A decayed profile only needs its count lowered. Returns
+     * false if the count was within the cap.
+     */
+    public boolean compact(int maxCount) {
+        if (count <= maxCount) {
+            return false;
+        }
+        if (sums != null) {
+            TimingStats.scale(sums, count, maxCount);
+            TimingStats.toTimings(sums, maxCount, timings);
+        }
+        count = maxCount;
+        return true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double[] getTimings() {
+        return timings;
+    }
+
+    /* the TimingStats sums, null if the profile is decayed */
+    public long[] getSums() {
+        return sums;
+    }
+
+    public double getWeight() {
+        return isDecayed() ? weight : count;
+    }
+
+    private static void checkMergeable(WordProfile profile) {
+        if (profile.isDecayed()) {
+            throw new IllegalStateException("decayed profiles cannot be merged");
+        }
+    }
+}
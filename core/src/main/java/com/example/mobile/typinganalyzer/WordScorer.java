@@ -0,0 +1,49 @@
+package com.example.mobile.typinganalyzer;
+
+import static java.lang.StrictMath.abs;
+
+/* The scoring math behind the word profiles, kept free of Android so it can be benchmarked and
+ * tested on a plain JVM. Timings are in WordProfile order (average and variance per timing) and
+ * samples in WordBuffer order (one value per timing). The statistics themselves are kept by
+ * TimingStats.
+ */
+public class WordScorer {
+    private final double stdDevThreshold;
+
+    public WordScorer(double stdDevThreshold) {
+        this.stdDevThreshold = stdDevThreshold;
+    }
+
+    /* counts how many of the samples fall within the threshold of their average */
+    public int countWithinThreshold(double[] timings, long[] samples, int length) {
+        int miniScore = 0;
+        for (int i = 0; i < 4*length - 2; i += 2) {
+            long value = samples[i>>1];
+            double avg = timings[i];
+            double stdDev = Math.sqrt(timings[i + 1]);
+            if (abs(value - avg) < stdDevThreshold*stdDev) {
+                miniScore++;
+            }
+        }
+        return miniScore;
+    }
+
+    /* Decides whether a word is typed like its profile: all timings of a one letter word, two
+     * thirds of a two letter word and three quarters of a longer word have to be within the
+     * threshold.
+     */
+    public static boolean accepts(int miniScore, int length) {
+        int num, dom;
+        if (length == 1) {
+            num = 1;
+            dom = 1;
+        } else if (length == 2) {
+            num = 2;
+            dom = 3;
+        } else {
+            num = 3;
+            dom = 4;
+        }
+        return dom*miniScore >= num*(2*length - 1);
+    }
+}
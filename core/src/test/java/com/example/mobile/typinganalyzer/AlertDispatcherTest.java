@@ -0,0 +1,139 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AlertDispatcherTest {
+    private final Metrics metrics = new Metrics();
+    private final List<Double> scores = Collections.synchronizedList(new ArrayList<Double>());
+    private final List<String> alerts = Collections.synchronizedList(new ArrayList<String>());
+    private long time;
+
+    private final Clock clock = new Clock() {
+        @Override
+        public long now() {
+            return time;
+        }
+    };
+    private final AlertSink sink = new AlertSink() {
+        @Override
+        public void onWordScored(double score, boolean accepted) {
+            scores.add(score);
+        }
+
+        @Override
+        public void onThresholdExceeded(String scoreName, double score, double threshold) {
+            alerts.add(scoreName);
+        }
+    };
+
+    private AlertDispatcher dispatcher() {
+        AlertDispatcher dispatcher = new AlertDispatcher(clock, 60000, 10000, metrics);
+        dispatcher.addSink(sink);
+        return dispatcher;
+    }
+
+    private static void close(AlertDispatcher dispatcher) throws InterruptedException {
+        dispatcher.close();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void coalescesScores() throws Exception {
+        AlertDispatcher dispatcher = dispatcher();
+        for (int i = 0; i < 100; ++i) {
+            dispatcher.onWordScored(i, true);
+        }
+        close(dispatcher);
+        // the first word goes out right away, everything after it waits for the interval
+        assertTrue(scores.size() <= 2);
+        assertEquals(99, scores.get(scores.size() - 1), 0);
+        assertEquals(100 - scores.size(), metrics.counter("alerts_coalesced").get());
+    }
+
+    @Test
+    public void rateLimitsAlertsPerScore() throws Exception {
+        AlertDispatcher dispatcher = dispatcher();
+        dispatcher.onThresholdExceeded(AnalyzerCore.SCORE_ID, 60, 50);
+        time = 5000;
+        dispatcher.onThresholdExceeded(AnalyzerCore.SCORE_ID, 60, 50);
+        dispatcher.onThresholdExceeded(AnalyzerCore.KEYSTROKE_SCORE_ID, 60, 50);
+        time = 10000;
+        dispatcher.onThresholdExceeded(AnalyzerCore.SCORE_ID, 60, 50);
+        close(dispatcher);
+        assertEquals(Arrays.asList(AnalyzerCore.SCORE_ID, AnalyzerCore.KEYSTROKE_SCORE_ID, AnalyzerCore.SCORE_ID), alerts);
+        assertEquals(1, metrics.counter("alerts_suppressed").get());
+    }
+
+    @Test
+    public void protectiveSinksGetEveryAlert() throws Exception {
+        AlertDispatcher dispatcher = dispatcher();
+        final List<String> protective = Collections.synchronizedList(new ArrayList<String>());
+        dispatcher.addProtectiveSink(new AlertSink() {
+            @Override
+            public void onWordScored(double score, boolean accepted) {
+            }
+
+            @Override
+            public void onThresholdExceeded(String scoreName, double score, double threshold) {
+                protective.add(scoreName);
+            }
+        });
+        dispatcher.onThresholdExceeded(AnalyzerCore.SCORE_ID, 60, 50);
+        time = 5000;
+        dispatcher.onThresholdExceeded(AnalyzerCore.SCORE_ID, 60, 50);
+        close(dispatcher);
+        assertEquals(Collections.singletonList(AnalyzerCore.SCORE_ID), alerts);
+        assertEquals(Arrays.asList(AnalyzerCore.SCORE_ID, AnalyzerCore.SCORE_ID), protective);
+        assertEquals(1, metrics.counter("alerts_suppressed").get());
+    }
+
+    @Test
+    public void traceSinkSeesEveryWord() throws Exception {
+        AlertDispatcher dispatcher = dispatcher();
+        final int[] traced = new int[1];
+        dispatcher.setTraceSink(new AlertSink() {
+            @Override
+            public void onWordScored(double score, boolean accepted) {
+                ++traced[0];
+            }
+
+            @Override
+            public void onThresholdExceeded(String scoreName, double score, double threshold) {
+            }
+        });
+        for (int i = 0; i < 100; ++i) {
+            dispatcher.onWordScored(i, false);
+        }
+        assertEquals(100, traced[0]);
+        close(dispatcher);
+    }
+
+    @Test
+    public void aFailingSinkDoesNotStopTheOthers() throws Exception {
+        AlertDispatcher dispatcher = new AlertDispatcher(clock, 60000, 10000, metrics);
+        dispatcher.addSink(new AlertSink() {
+            @Override
+            public void onWordScored(double score, boolean accepted) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void onThresholdExceeded(String scoreName, double score, double threshold) {
+                throw new IllegalStateException();
+            }
+        });
+        dispatcher.addSink(sink);
+        dispatcher.onThresholdExceeded(AnalyzerCore.SCORE_ID, 60, 50);
+        close(dispatcher);
+        assertEquals(Collections.singletonList(AnalyzerCore.SCORE_ID), alerts);
+        assertEquals(1, metrics.counter("alert_sink_errors").get());
+    }
+}
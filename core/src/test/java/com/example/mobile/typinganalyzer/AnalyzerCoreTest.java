@@ -0,0 +1,261 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnalyzerCoreTest {
+    private final AnalyzerConfig config = new AnalyzerConfig();
+    private final InMemoryProfileStore profiles = new InMemoryProfileStore();
+    private final InMemoryStateStore state = new InMemoryStateStore();
+    private final List<String> alerts = new ArrayList<>();
+    private DictionaryIndex dictionary;
+    private long time;
+
+    private final Clock clock = new Clock() {
+        @Override
+        public long now() {
+            return time;
+        }
+    };
+    private final AlertSink sink = new AlertSink() {
+        @Override
+        public void onWordScored(double score, boolean accepted) {
+        }
+
+        @Override
+        public void onThresholdExceeded(String scoreName, double score, double threshold) {
+            alerts.add(scoreName);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DictionaryIndex.write(Arrays.asList("the", "and", "then"), out);
+        dictionary = DictionaryIndex.load(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    private AnalyzerCore createCore() {
+        return new AnalyzerCore(config, clock, dictionary, profiles, state, sink);
+    }
+
+    /* types the word followed by a space, every key held for duration with gap ms in between */
+    private void type(AnalyzerCore core, String word, long duration, long gap) {
+        for (int i = 0; i < word.length(); ++i) {
+            time += gap + duration;
+            core.push_char(word.charAt(i), duration, time);
+        }
+        time += gap + duration;
+        core.push_char(' ', duration, time);
+    }
+
+    @Test
+    public void learnsDictionaryWordsOnly() {
+        AnalyzerCore core = createCore();
+        type(core, "the", 100, 50);
+        type(core, "The", 100, 50);
+        type(core, "zebra", 100, 50);
+        assertEquals(0, profiles.size());
+
+        core.flush();
+        assertEquals(1, profiles.size());
+        WordProfile the = profiles.snapshot().get("the");
+        assertEquals(2, the.getCount());
+        // duration and latency of the first letter
+        assertEquals(100, the.getTimings()[0], 1e-9);
+        assertEquals(50, the.getTimings()[2], 1e-9);
+    }
+
+    @Test
+    public void flushesAfterEnoughWords() {
+        config.flushWordThreshold = 3;
+        AnalyzerCore core = createCore();
+        type(core, "the", 100, 50);
+        type(core, "and", 100, 50);
+        assertEquals(0, profiles.getBatchCount());
+        type(core, "the", 100, 50);
+        assertEquals(1, profiles.getBatchCount());
+        assertEquals(2, profiles.size());
+    }
+
+    @Test
+    public void raisesTheWordScoreForAStranger() {
+        config.scoreThreshold = 5;
+        AnalyzerCore core = createCore();
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        assertTrue(alerts.isEmpty());
+
+        for (int i = 0; i < 4 && alerts.isEmpty(); ++i) {
+            type(core, "the", 300, 400);
+        }
+        assertTrue(alerts.contains(AnalyzerCore.SCORE_ID));
+    }
+
+    @Test
+    public void keepsTheScoresAcrossRestarts() {
+        AnalyzerCore core = createCore();
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        type(core, "the", 300, 400);
+        double score = core.getScore();
+        assertTrue(score > 0);
+        core.flush();
+
+        AnalyzerCore restarted = createCore();
+        assertEquals(score, restarted.getScore(), 0);
+        assertEquals(core.getDigraphs().getDwellCount(DigraphModel.letterIndex('t')),
+                restarted.getDigraphs().getDwellCount(DigraphModel.letterIndex('t')));
+    }
+
+    @Test
+    public void learnsNothingNewFromAStranger() {
+        AnalyzerCore core = createCore();
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        for (int i = 0; i < 3; ++i) {
+            type(core, "the", 300, 400);
+        }
+        assertTrue(core.getScore() >= config.trustedScoreFraction*config.scoreThreshold);
+        // a word without a profile is not learned now
+        type(core, "and", 300, 400);
+        core.flush();
+        assertNull(profiles.snapshot().get("and"));
+        assertEquals(config.countThreshold, profiles.snapshot().get("the").getCount());
+    }
+
+    @Test
+    public void learnsNewWordsAfterAnEarlyOutlier() {
+        AnalyzerCore core = createCore();
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        // a new word with one slow key in it
+        long[] durations = {100, 100, 300, 100, 100};
+        String then = "then ";
+        for (int i = 0; i < then.length(); ++i) {
+            time += 50 + durations[i];
+            core.push_char(then.charAt(i), durations[i], time);
+        }
+        assertTrue(core.getKeystrokeScore() > 0);
+        type(core, "and", 100, 50);
+        core.flush();
+        assertEquals(1, profiles.snapshot().get("then").getCount());
+        assertEquals(1, profiles.snapshot().get("and").getCount());
+    }
+
+    @Test
+    public void learnsInThePartitionAndGlobally() {
+        AnalyzerCore core = createCore();
+        core.setPartition("com.example.chat/1/0");
+        type(core, "the", 100, 50);
+        core.setPartition(AnalyzerCore.GLOBAL_PARTITION);
+        type(core, "the", 120, 50);
+        core.flush();
+
+        assertEquals(1, profiles.snapshot("com.example.chat/1/0").get("the").getCount());
+        assertEquals(2, profiles.snapshot().get("the").getCount());
+        assertEquals(2, profiles.size());
+    }
+
+    @Test
+    public void judgesAColdPartitionByTheGlobalProfile() {
+        config.scoreThreshold = 5;
+        AnalyzerCore core = createCore();
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        core.setPartition("com.example.chat/1/0");
+        for (int i = 0; i < 4 && alerts.isEmpty(); ++i) {
+            type(core, "the", 300, 400);
+        }
+        assertTrue(alerts.contains(AnalyzerCore.SCORE_ID));
+    }
+
+    @Test
+    public void judgesAWarmPartitionByItsOwnProfile() {
+        config.scoreThreshold = 5;
+        AnalyzerCore core = createCore();
+        // loose globally, tight in the partition
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + 20*(i%2), 50 + 20*(i%2));
+        }
+        core.setPartition("com.example.game/1/0");
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 110 + i%2, 60 + i%2);
+        }
+        assertEquals(0, core.getScore(), 0);
+        type(core, "the", 120, 70);
+        assertTrue(core.getScore() > 0);
+        core.setPartition(AnalyzerCore.GLOBAL_PARTITION);
+        double score = core.getScore();
+        type(core, "the", 120, 70);
+        assertTrue(core.getScore() < score);
+    }
+
+    @Test
+    public void aStrangerCannotWarmUpAPartition() {
+        config.scoreThreshold = 1000;
+        AnalyzerCore core = createCore();
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        core.setPartition("com.example.game/1/0");
+        for (int i = 0; i < 2*config.countThreshold; ++i) {
+            type(core, "the", 300 + i%2, 400 + i%2);
+        }
+        core.flush();
+        // the global profile rejected every word, and the partition stopped learning once the
+        // score was up, long before it could judge anything itself
+        assertEquals(config.countThreshold, profiles.snapshot().get("the").getCount());
+        assertTrue(profiles.snapshot("com.example.game/1/0").get("the").getCount() < config.countThreshold);
+        assertTrue(core.getScore() > 0);
+    }
+
+    @Test
+    public void warmsUpAPartitionThatIsTypedDifferently() {
+        config.scoreThreshold = 1000;
+        AnalyzerCore core = createCore();
+        for (int i = 0; i < config.countThreshold; ++i) {
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        // the slow field now and then, in between the usual typing
+        for (int i = 0; i < config.countThreshold; ++i) {
+            core.setPartition("com.example.bank/1/128");
+            type(core, "the", 300 + i%2, 400 + i%2);
+            core.setPartition(AnalyzerCore.GLOBAL_PARTITION);
+            type(core, "the", 100 + i%2, 50 + i%2);
+        }
+        assertEquals(0, core.getScore(), 0);
+        core.setPartition("com.example.bank/1/128");
+        type(core, "the", 300, 400);
+        // judged by its own profile now
+        assertEquals(0, core.getScore(), 0);
+        core.flush();
+        assertEquals(config.countThreshold + 1, profiles.snapshot("com.example.bank/1/128").get("the").getCount());
+        // none of the slow words reached the global profile
+        assertEquals(2*config.countThreshold, profiles.snapshot().get("the").getCount());
+    }
+
+    @Test
+    public void dropsTheWordTypedWhenThePartitionChanges() {
+        AnalyzerCore core = createCore();
+        time += 150;
+        core.push_char('t', 100, time);
+        core.setPartition("com.example.chat/1/0");
+        type(core, "he", 100, 50);
+        core.flush();
+        assertEquals(0, profiles.size());
+    }
+}
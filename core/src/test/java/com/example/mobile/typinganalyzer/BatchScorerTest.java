@@ -0,0 +1,79 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BatchScorerTest {
+
+    @Test
+    public void matchesWordScorerExactly() throws Exception {
+        Random random = new Random(7);
+        WordScorer scorer = new WordScorer(2);
+        // starts small so the arrays have to grow
+        BatchScorer batch = new BatchScorer(2, 1);
+        double[][] timings = new double[500][];
+        long[][] samples = new long[500][];
+        for (int w = 0; w < 500; ++w) {
+            int length = 1 + random.nextInt(9);
+            samples[w] = new long[2*length - 1];
+            timings[w] = new double[4*length - 2];
+            for (int i = 0; i < samples[w].length; ++i) {
+                timings[w][2*i] = 50 + random.nextInt(200);
+                // some timings without any variance, some exactly on the threshold
+                timings[w][2*i + 1] = random.nextInt(4) == 0 ? 0 : random.nextInt(900);
+                samples[w][i] = random.nextInt(5) == 0
+                        ? (long)(timings[w][2*i] + 2*Math.sqrt(timings[w][2*i + 1]))
+                        : 50 + random.nextInt(200);
+            }
+            assertEquals(w, batch.add(timings[w], samples[w], length));
+        }
+        batch.score();
+
+        double score = 3;
+        for (int w = 0; w < 500; ++w) {
+            int length = (samples[w].length + 1)/2;
+            int within = scorer.countWithinThreshold(timings[w], samples[w], length);
+            assertEquals(within, batch.getWithin(w));
+            assertEquals(WordScorer.accepts(within, length), batch.isAccepted(w));
+            // the same steps as AnalyzerCore.checkWordUpdateScore()
+            if (WordScorer.accepts(within, length)) {
+                score -= Math.sqrt(length);
+                if (score < 0) {
+                    score = 0;
+                }
+            } else {
+                score += Math.sqrt(length);
+            }
+        }
+        assertEquals(Double.doubleToLongBits(score), Double.doubleToLongBits(batch.applyScores(3)));
+    }
+
+    @Test
+    public void startsOverAfterClear() throws Exception {
+        BatchScorer batch = new BatchScorer(2, 4);
+        batch.add(new double[] {100, 25}, new long[] {300}, 1);
+        batch.clear();
+        assertEquals(0, batch.add(new double[] {100, 25}, new long[] {101}, 1));
+        batch.score();
+        assertEquals(1, batch.size());
+        assertTrue(batch.isAccepted(0));
+        assertEquals(-1, batch.getScoreDelta(0), 0);
+        assertEquals(0, batch.applyScores(0.5), 0);
+    }
+
+    @Test
+    public void takesPrecomputedStdDevs() throws Exception {
+        double[] timings = {100, 25, 50, 0, 90, 16};
+        long[] samples = {109, 50, 97};
+        BatchScorer batch = new BatchScorer(2, 4);
+        batch.add(timings, samples, 2);
+        batch.add(timings, BatchScorer.stdDevs(timings), samples, 2);
+        batch.score();
+        assertEquals(new WordScorer(2).countWithinThreshold(timings, samples, 2), batch.getWithin(0));
+        assertEquals(batch.getWithin(0), batch.getWithin(1));
+        assertEquals(batch.isAccepted(0), batch.isAccepted(1));
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DictionaryIndexTest {
+
+    private static DictionaryIndex compile(List<String> words) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DictionaryIndex.write(words, out);
+        return DictionaryIndex.load(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test
+    public void findsWordsIgnoringCase() throws Exception {
+        DictionaryIndex dictionary = compile(Arrays.asList("the", "of", "And", "the"));
+        assertEquals(3, dictionary.size());
+
+        char[] typed = "ANDroid".toCharArray();
+        int id = dictionary.lookup(typed, 3);
+        assertEquals(2, id);
+        assertEquals("and", dictionary.word(id));
+        assertSame(dictionary.word(id), dictionary.word(dictionary.lookup("and".toCharArray(), 3)));
+
+        assertTrue(dictionary.contains("The"));
+        assertFalse(dictionary.contains("th"));
+        assertFalse(dictionary.contains("them"));
+        assertFalse(dictionary.contains(""));
+        assertFalse(dictionary.contains("caf\u00e9"));
+    }
+
+    @Test
+    public void handlesLargeDictionaries() throws Exception {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 60000; ++i) {
+            words.add("w" + Integer.toString(i, 26));
+        }
+        DictionaryIndex dictionary = compile(words);
+        assertEquals(words.size(), dictionary.size());
+        for (int i = 0; i < words.size(); i += 97) {
+            String word = words.get(i);
+            assertEquals(i, dictionary.lookup(word.toCharArray(), word.length()));
+        }
+        assertFalse(dictionary.contains("x0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGarbage() throws Exception {
+        DictionaryIndex.load(ByteBuffer.wrap(new byte[64]));
+    }
+}
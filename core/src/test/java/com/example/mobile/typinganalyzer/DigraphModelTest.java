@@ -0,0 +1,75 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.*;
+
+public class DigraphModelTest {
+    private static final int T = DigraphModel.letterIndex('t');
+    private static final int H = DigraphModel.letterIndex('H');
+
+    private static DigraphModel trained() {
+        DigraphModel model = new DigraphModel(5, 2);
+        for (int i = 0; i < 20; ++i) {
+            model.observe(-1, T, 100 + i%5, 0, true);
+            model.observe(T, H, 90 + i%3, 150 + i%7, true);
+        }
+        return model;
+    }
+
+    @Test
+    public void learnsMeanAndVariance() throws Exception {
+        DigraphModel model = trained();
+        assertEquals(20, model.getDwellCount(T));
+        assertEquals(102, model.getDwellMean(T), 1e-9);
+        assertEquals(2, model.getDwellVariance(T), 1e-9);
+        assertEquals(20, model.getFlightCount(T, H));
+        assertEquals(0, model.getFlightCount(H, T));
+    }
+
+    @Test
+    public void flagsOutliersOnceTrained() throws Exception {
+        DigraphModel model = new DigraphModel(5, 2);
+        // not enough samples yet to judge anything
+        assertFalse(model.observe(-1, T, 100, 0, true));
+        assertFalse(model.observe(-1, T, 500, 0, true));
+
+        model = trained();
+        assertFalse(model.observe(T, H, 91, 152, true));
+        assertTrue(model.observe(T, H, 91, 400, true));
+        assertTrue(model.observe(-1, T, 300, 0, true));
+        // an unseen pair cannot be judged, only its letter
+        assertFalse(model.observe(H, T, 102, 999, true));
+    }
+
+    @Test
+    public void roundTrips() throws Exception {
+        DigraphModel model = trained();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        model.writeTo(new DataOutputStream(bytes));
+
+        DigraphModel copy = new DigraphModel(5, 2);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(model.getFlightMean(T, H), copy.getFlightMean(T, H), 0);
+        assertEquals(model.getFlightVariance(T, H), copy.getFlightVariance(T, H), 0);
+        assertEquals(model.getDwellCount(T), copy.getDwellCount(T));
+    }
+
+    @Test
+    public void learnsOutliersOnlyWhenTrusted() throws Exception {
+        DigraphModel model = trained();
+        for (int i = 0; i < 20; ++i) {
+            assertTrue(model.observe(T, H, 91, 400, false));
+        }
+        // the normal duration of h was still learned, the latency was not
+        assertEquals(40, model.getDwellCount(H));
+        assertEquals(20, model.getFlightCount(T, H));
+        assertTrue(model.observe(T, H, 91, 400, true));
+        assertEquals(21, model.getFlightCount(T, H));
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeyEventRingBufferTest {
+
+    private static class Recorder implements KeyEventRingBuffer.Handler {
+        final List<Integer> codes = new ArrayList<>();
+
+        @Override
+        public void onKeyEvent(int code, long duration, long eventTime) {
+            codes.add(code);
+            assertEquals(code * 10L, duration);
+            assertEquals(code * 100L, eventTime);
+        }
+    }
+
+    @Test
+    public void drainsInOrder() throws Exception {
+        KeyEventRingBuffer buffer = new KeyEventRingBuffer(4);
+        Recorder recorder = new Recorder();
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 1; i <= 3; ++i) {
+                assertTrue(buffer.offer(i, i * 10L, i * 100L));
+            }
+            assertEquals(3, buffer.size());
+            assertEquals(3, buffer.drain(recorder));
+            assertTrue(buffer.isEmpty());
+        }
+        assertEquals(9, recorder.codes.size());
+        assertEquals(Integer.valueOf(3), recorder.codes.get(8));
+    }
+
+    @Test
+    public void dropsWhenFull() throws Exception {
+        KeyEventRingBuffer buffer = new KeyEventRingBuffer(2);
+        assertTrue(buffer.offer(1, 10, 100));
+        assertTrue(buffer.offer(2, 20, 200));
+        assertFalse(buffer.offer(3, 30, 300));
+        assertEquals(1, buffer.droppedCount());
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.drain(new Recorder()));
+        assertTrue(buffer.offer(3, 30, 300));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwoCapacity() throws Exception {
+        new KeyEventRingBuffer(3);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/* Checks that the per-key path (ring buffer enqueue, the keystroke log and the AnalyzerCore,
+ * including the word lookups and scoring) does not allocate once it has warmed up. Uses the
+ * HotSpot per-thread allocation counter, so it is skipped on JVMs without one.
+ */
+public class KeystrokeAllocationTest {
+    private static final int KEYS = 100000;
+
+    private final KeyEventRingBuffer queue = new KeyEventRingBuffer(64);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AnalyzerCore core;
+    private KeystrokeLog log;
+    private long time;
+    private final KeyEventRingBuffer.Handler handler = new KeyEventRingBuffer.Handler() {
+        @Override
+        public void onKeyEvent(int code, long duration, long eventTime) {
+            try {
+                log.append(code, duration, eventTime);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            core.push_char(code, duration, eventTime);
+        }
+    };
+
+    private static int code(int i) {
+        // eight letter words separated by spaces
+        return i%9 == 8 ? ' ' : 'a' + i%26;
+    }
+
+    private void typeKeys(int keys) {
+        for (int i = 0; i < keys; ++i) {
+            time += 150;
+            queue.offer(code(i), 80 + i%40, time);
+            queue.drain(handler);
+        }
+    }
+
+    private void createCore() throws Exception {
+        // every word that typeKeys() types is in the dictionary
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 9*26; ++i) {
+            if (code(i) == ' ') {
+                words.add(word.toString());
+                word.setLength(0);
+            } else {
+                word.append((char)code(i));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DictionaryIndex.write(words, out);
+
+        AnalyzerConfig config = new AnalyzerConfig();
+        // keep the write-behind out of the measurement
+        config.flushWordThreshold = Integer.MAX_VALUE;
+        config.flushInterval = Long.MAX_VALUE;
+        config.scoreThreshold = Double.MAX_VALUE;
+        config.keystrokeScoreThreshold = Double.MAX_VALUE;
+        Clock clock = new Clock() {
+            @Override
+            public long now() {
+                return time;
+            }
+        };
+        AlertSink alerts = new AlertSink() {
+            @Override
+            public void onWordScored(double score, boolean accepted) {
+            }
+
+            @Override
+            public void onThresholdExceeded(String scoreName, double score, double threshold) {
+            }
+        };
+        // big enough that the log never has to map another segment
+        log = new KeystrokeLog(folder.newFolder(), 2*KEYS + 1, 1);
+        core = new AnalyzerCore(config, clock, DictionaryIndex.load(ByteBuffer.wrap(out.toByteArray())),
+                new InMemoryProfileStore(), new InMemoryStateStore(), alerts);
+    }
+
+    @Test
+    public void steadyStateKeysDoNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = Thread.currentThread().getId();
+
+        createCore();
+        typeKeys(KEYS);
+
+        // the cost of reading the counter itself
+        long start = threads.getThreadAllocatedBytes(id);
+        long overhead = threads.getThreadAllocatedBytes(id) - start;
+
+        start = threads.getThreadAllocatedBytes(id);
+        typeKeys(KEYS);
+        long allocated = threads.getThreadAllocatedBytes(id) - start - overhead;
+
+        // the smallest object is 16 bytes, so anything under a byte per key means no key allocated;
+        // what is left is a few bytes of one-off JIT and counter bookkeeping
+        assertEquals("bytes allocated per key (" + allocated + " in total)", 0, allocated/KEYS);
+    }
+}
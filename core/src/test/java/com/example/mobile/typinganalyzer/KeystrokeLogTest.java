@@ -0,0 +1,83 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class KeystrokeLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasAppended() throws Exception {
+        File dir = folder.newFolder();
+        KeystrokeLog log = new KeystrokeLog(dir, 4, 10);
+        // released at 1100 after 100 ms, then pressed 50 ms after that
+        log.append('t', 100, 1100);
+        log.append('h', 80, 1230);
+        log.append(-5, 60, 1280);
+        log.close();
+
+        KeystrokeLog.Cursor cursor = KeystrokeLog.read(dir);
+        assertTrue(cursor.next());
+        assertEquals('t', cursor.keycode());
+        assertEquals(1000, cursor.pressTime());
+        assertEquals(100, cursor.dwell());
+        assertEquals(-1, cursor.flight());
+        assertEquals(1100, cursor.releaseTime());
+        assertTrue(cursor.next());
+        assertEquals('h', cursor.keycode());
+        assertEquals(50, cursor.flight());
+        assertTrue(cursor.next());
+        assertEquals(-5, cursor.keycode());
+        // pressed before the previous key was released
+        assertEquals(-10, cursor.flight());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void rotatesAndDropsOldSegments() throws Exception {
+        File dir = folder.newFolder();
+        KeystrokeLog log = new KeystrokeLog(dir, 4, 3);
+        for (int i = 0; i < 14; ++i) {
+            log.append('a' + i, 10, 100*i);
+        }
+        log.close();
+        assertEquals(3, KeystrokeLog.segments(dir).length);
+
+        // the first segment went away, the last one holds two keys
+        KeystrokeLog.Cursor cursor = KeystrokeLog.read(dir);
+        int expected = 4;
+        while (cursor.next()) {
+            assertEquals('a' + expected, cursor.keycode());
+            expected++;
+        }
+        assertEquals(14, expected);
+    }
+
+    @Test
+    public void continuesTheNewestSegment() throws Exception {
+        File dir = folder.newFolder();
+        KeystrokeLog log = new KeystrokeLog(dir, 4, 10);
+        log.append('a', 10, 100);
+        log.close();
+
+        log = new KeystrokeLog(dir, 4, 10);
+        assertEquals(1, log.getSegmentCount());
+        log.append('b', 10, 150);
+        log.close();
+        assertEquals(1, KeystrokeLog.segments(dir).length);
+
+        KeystrokeLog.Cursor cursor = KeystrokeLog.read(dir);
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertEquals('b', cursor.keycode());
+        // the flight is measured from the key logged before the restart
+        assertEquals(40, cursor.flight());
+        assertFalse(cursor.next());
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        int previous = -1;
+        for (long value = 0; value < 100000; ++value) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (long i = 1; i <= 10000; ++i) {
+            histogram.record(i*1000);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(5000500, histogram.getMean(), 1e-6);
+        assertEquals(10000000, histogram.getMax());
+        assertWithin(5000000, histogram.percentile(0.5));
+        assertWithin(9900000, histogram.percentile(0.99));
+        assertWithin(9990000, histogram.percentile(0.999));
+        assertEquals(10000000, histogram.percentile(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.percentile(0.5));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not close to " + expected, actual >= expected && actual <= expected*1.125);
+    }
+
+    @Test
+    public void registersEachNameOnce() {
+        Metrics metrics = new Metrics();
+        assertSame(metrics.histogram("word"), metrics.histogram("word"));
+        assertSame(metrics.counter("keys"), metrics.counter("keys"));
+        metrics.histogram("word").record(2000);
+        metrics.counter("keys").incrementAndGet();
+
+        StringWriter text = new StringWriter();
+        metrics.writeTo(new PrintWriter(text));
+        String[] lines = text.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("word "));
+        assertTrue(lines[2].matches("keys +1"));
+    }
+}
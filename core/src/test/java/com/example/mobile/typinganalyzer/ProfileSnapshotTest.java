@@ -0,0 +1,90 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ProfileSnapshotTest {
+    private static final int T = DigraphModel.letterIndex('t');
+
+    private static byte[] snapshot() throws IOException {
+        DigraphModel digraphs = new DigraphModel(5, 2);
+        for (int i = 0; i < 10; ++i) {
+            digraphs.observe(-1, T, 100 + i, 0, true);
+        }
+        WordProfile the = WordProfile.of(new long[] {90, 120, 80, 110, 95}, 3);
+        WordProfile of = WordProfile.of(new long[] {70, 130, 85}, 2);
+        of.addDecayed(new long[] {75, 125, 90}, DecayedStats.retention(10));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ProfileSnapshot.Writer writer = new ProfileSnapshot.Writer(bytes, 12.5, 3, digraphs);
+        writer.write(AnalyzerCore.GLOBAL_PARTITION, "the", 1, TimingCodec.encode(the, null));
+        writer.write("com.example.chat/1/0", "of", 2, TimingCodec.encode(of, null));
+        writer.finish();
+        assertEquals(2, writer.getRecordCount());
+        return bytes.toByteArray();
+    }
+
+    private static int readAll(byte[] bytes) throws IOException {
+        ProfileSnapshot.Reader reader = new ProfileSnapshot.Reader(new ByteArrayInputStream(bytes), new DigraphModel(5, 2));
+        while (reader.next()) {
+            // just read through
+        }
+        return reader.getRecordCount();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        DigraphModel digraphs = new DigraphModel(5, 2);
+        ProfileSnapshot.Reader reader = new ProfileSnapshot.Reader(new ByteArrayInputStream(snapshot()), digraphs);
+        assertEquals(12.5, reader.getScore(), 0);
+        assertEquals(3, reader.getKeystrokeScore(), 0);
+        assertEquals(10, digraphs.getDwellCount(T));
+
+        assertTrue(reader.next());
+        assertEquals(AnalyzerCore.GLOBAL_PARTITION, reader.partition());
+        assertEquals("the", reader.word());
+        assertEquals(1, reader.count());
+        WordProfile the = TimingCodec.decodeProfile(-1, reader.count(), reader.blob());
+        assertEquals(90, the.getTimings()[0], 0);
+
+        assertTrue(reader.next());
+        assertEquals("com.example.chat/1/0", reader.partition());
+        assertEquals("of", reader.word());
+        assertTrue(TimingCodec.decodeProfile(-1, reader.count(), reader.blob()).isDecayed());
+
+        assertFalse(reader.next());
+        assertFalse(reader.next());
+        assertEquals(2, reader.getRecordCount());
+    }
+
+    @Test
+    public void detectsACorruptRecord() throws Exception {
+        byte[] bytes = snapshot();
+        // a bit of the last blob
+        bytes[bytes.length - 20] ^= 1;
+        try {
+            readAll(bytes);
+            fail();
+        } catch (IOException e) {
+            assertEquals("corrupt snapshot", e.getMessage());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void detectsATruncatedSnapshot() throws Exception {
+        byte[] bytes = snapshot();
+        readAll(Arrays.copyOf(bytes, bytes.length - 9));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        readAll("not a snapshot at all".getBytes("US-ASCII"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimeProfileCacheTest {
+    /* gives out ids like a database and can fail the commit of a batch */
+    private static class FailingStore implements ProfileStore {
+        final List<String> inserts = new ArrayList<>();
+        boolean failCommit;
+        long nextId = 1;
+
+        @Override
+        public WordProfile load(String partition, String word) {
+            return null;
+        }
+
+        @Override
+        public void beginWrite() {
+        }
+
+        @Override
+        public void write(String partition, String word, WordProfile profile) {
+            if (profile.id < 0) {
+                profile.id = nextId++;
+                inserts.add(word);
+            }
+        }
+
+        @Override
+        public void endWrite(boolean successful) {
+            if (successful && failCommit) {
+                throw new IllegalStateException("disk full");
+            }
+        }
+    }
+
+    @Test
+    public void newProfilesAreInsertedAgainAfterAFailedCommit() throws Exception {
+        FailingStore store = new FailingStore();
+        TimeProfileCache cache = new TimeProfileCache(store, 16);
+        WordProfile profile = cache.put(AnalyzerCore.GLOBAL_PARTITION, "the", TimingStats.initial(new long[] {100, 50, 90, 60, 80}, 3));
+        store.failCommit = true;
+        try {
+            cache.flush();
+            fail();
+        } catch (IllegalStateException e) {
+            // the batch was rolled back
+        }
+        assertTrue(profile.id < 0);
+        assertTrue(profile.dirty);
+
+        store.failCommit = false;
+        cache.flush();
+        assertTrue(profile.id > 0);
+        assertFalse(profile.dirty);
+        assertEquals(2, store.inserts.size());
+    }
+}
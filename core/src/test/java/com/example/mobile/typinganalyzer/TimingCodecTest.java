@@ -0,0 +1,64 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimingCodecTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        long[] sums = {1125, 0, 87, 30125, -15, Long.MAX_VALUE};
+        byte[] blob = TimingCodec.encode(sums, null);
+        assertEquals(TimingCodec.blobSize(sums.length), blob.length);
+        assertEquals(sums.length, TimingCodec.sumsLength(blob));
+        assertArrayEquals(sums, TimingCodec.decode(blob));
+    }
+
+    @Test
+    public void littleEndianLayout() throws Exception {
+        byte[] blob = TimingCodec.encode(new long[] {0x3ff0000000000102L}, null);
+        assertEquals(TimingCodec.FORMAT_SUMS, blob[0]);
+        assertEquals(2, blob[1]);
+        assertEquals(1, blob[2]);
+        assertEquals((byte)0xf0, blob[7]);
+        assertEquals((byte)0x3f, blob[8]);
+    }
+
+    @Test
+    public void readsTheOldFormat() throws Exception {
+        // 1.0 is 0x3ff0000000000000
+        byte[] blob = {TimingCodec.FORMAT_AVG_VAR, 0, 0, 0, 0, 0, 0, (byte)0xf0, 0x3f};
+        assertArrayEquals(new double[] {1.0}, TimingCodec.decodeAvgVar(blob), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheOldFormatAsSums() throws Exception {
+        TimingCodec.decode(new byte[] {TimingCodec.FORMAT_AVG_VAR, 0, 0, 0, 0, 0, 0, (byte)0xf0, 0x3f});
+    }
+
+    @Test
+    public void reusesBufferOfTheRightSize() throws Exception {
+        byte[] reuse = new byte[TimingCodec.blobSize(2)];
+        assertSame(reuse, TimingCodec.encode(new long[] {1, 2}, reuse));
+        assertNotSame(reuse, TimingCodec.encode(new long[] {1, 2, 3}, reuse));
+    }
+
+    @Test
+    public void roundTripsProfilesOfBothModes() throws Exception {
+        WordProfile cumulative = WordProfile.of(new long[] {120, 80, 95}, 2);
+        WordProfile decoded = TimingCodec.decodeProfile(7, 1, TimingCodec.encode(cumulative, null));
+        assertFalse(decoded.isDecayed());
+        assertArrayEquals(cumulative.getSums(), decoded.getSums());
+
+        WordProfile decayed = WordProfile.of(new long[] {120, 80, 95}, 2);
+        decayed.addDecayed(new long[] {130, 70, 90}, DecayedStats.retention(8));
+        byte[] blob = TimingCodec.encode(decayed, null);
+        assertEquals(TimingCodec.FORMAT_DECAYED, blob[0]);
+        decoded = TimingCodec.decodeProfile(7, 2, blob);
+        assertTrue(decoded.isDecayed());
+        assertEquals(7, decoded.id);
+        assertEquals(decayed.getWeight(), decoded.getWeight(), 0);
+        assertArrayEquals(decayed.getTimings(), decoded.getTimings(), 0);
+    }
+}
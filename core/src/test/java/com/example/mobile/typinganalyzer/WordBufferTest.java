@@ -0,0 +1,41 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WordBufferTest {
+
+    @Test
+    public void interleavesDurationsAndLatencies() throws Exception {
+        WordBuffer word = new WordBuffer(4);
+        word.append('t', 999, 80);
+        word.append('h', 120, 90);
+        word.append('e', 110, 70);
+        assertEquals("the", word.toString());
+        assertEquals(5, word.timingsLength());
+        long[] timings = word.timings();
+        assertEquals(80, timings[0]);
+        assertEquals(120, timings[1]);
+        assertEquals(90, timings[2]);
+        assertEquals(110, timings[3]);
+        assertEquals(70, timings[4]);
+    }
+
+    @Test
+    public void growsPastInitialCapacity() throws Exception {
+        WordBuffer word = new WordBuffer(1);
+        String text = "internationalization";
+        for (int i = 0; i < text.length(); ++i) {
+            word.append(text.charAt(i), i, 100 + i);
+        }
+        assertEquals(text, word.toString());
+        assertEquals(2*text.length() - 1, word.timingsLength());
+        assertEquals(119, word.timings()[2*text.length() - 2]);
+        assertEquals(19, word.timings()[2*text.length() - 3]);
+
+        word.reset();
+        assertEquals(0, word.length());
+        assertEquals(0, word.timingsLength());
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.mobile.typinganalyzer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WordProfileTest {
+    private static final int LENGTH = 4;
+
+    private static long[][] samples(int n, long seed) {
+        Random random = new Random(seed);
+        long[][] samples = new long[n][2*LENGTH - 1];
+        for (long[] sample : samples) {
+            for (int i = 0; i < sample.length; ++i) {
+                sample[i] = 60 + random.nextInt(200);
+            }
+        }
+        return samples;
+    }
+
+    private static WordProfile profile(long[][] samples, int from, int to) {
+        WordProfile profile = WordProfile.of(samples[from], LENGTH);
+        for (int i = from + 1; i < to; ++i) {
+            profile.add(samples[i]);
+        }
+        return profile;
+    }
+
+    @Test
+    public void matchesTwoPassStatistics() throws Exception {
+        long[][] samples = samples(500, 1);
+        double[] timings = profile(samples, 0, samples.length).getTimings();
+        for (int t = 0; t < 2*LENGTH - 1; ++t) {
+            double mean = 0;
+            for (long[] sample : samples) {
+                mean += sample[t];
+            }
+            mean /= samples.length;
+            double m2 = 0;
+            for (long[] sample : samples) {
+                m2 += (sample[t] - mean)*(sample[t] - mean);
+            }
+            assertEquals(mean, timings[2*t], 1e-9);
+            assertEquals(m2/samples.length, timings[2*t + 1], 1e-9);
+        }
+    }
+
+    @Test
+    public void mergeDoesNotDependOnTheSplit() throws Exception {
+        long[][] samples = samples(300, 2);
+        WordProfile whole = profile(samples, 0, 300);
+
+        WordProfile halves = profile(samples, 0, 150);
+        halves.merge(profile(samples, 150, 300));
+
+        List<WordProfile> parts = new ArrayList<>();
+        for (int from = 0; from < 300; from += 7) {
+            parts.add(profile(samples, from, Math.min(from + 7, 300)));
+        }
+        Collections.shuffle(parts, new Random(3));
+        WordProfile combined = WordProfile.combine(parts);
+
+        for (WordProfile profile : Arrays.asList(halves, combined)) {
+            assertEquals(whole.getCount(), profile.getCount());
+            assertArrayEquals(whole.getSums(), profile.getSums());
+            for (int i = 0; i < whole.getTimings().length; ++i) {
+                assertEquals(Double.doubleToLongBits(whole.getTimings()[i]),
+                        Double.doubleToLongBits(profile.getTimings()[i]));
+            }
+        }
+    }
+
+    @Test
+    public void combineOfNothing() throws Exception {
+        assertNull(WordProfile.combine(Collections.<WordProfile>emptyList()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeRejectsAnotherLength() throws Exception {
+        WordProfile.of(new long[] {1, 2, 3}, 2).merge(WordProfile.of(new long[] {1}, 1));
+    }
+
+    @Test
+    public void clampsOutliers() throws Exception {
+        WordProfile profile = WordProfile.of(new long[] {-5, Long.MAX_VALUE / 2, 7}, 2);
+        assertEquals(0, profile.getTimings()[0], 0);
+        assertEquals(TimingStats.MAX_SAMPLE, profile.getTimings()[2], 0);
+    }
+
+    @Test
+    public void rebuildsSumsFromStoredAverages() throws Exception {
+        WordProfile profile = profile(samples(40, 4), 0, 40);
+        long[] sums = TimingStats.fromTimings(profile.getTimings(), profile.getCount());
+        assertArrayEquals(profile.getSums(), sums);
+    }
+
+    @Test
+    public void decayedStartsOutLikeCumulative() throws Exception {
+        long[][] samples = samples(10, 5);
+        WordProfile cumulative = profile(samples, 0, 10);
+        WordProfile decayed = WordProfile.of(samples[0], LENGTH);
+        for (int i = 1; i < 10; ++i) {
+            decayed.addDecayed(samples[i], 1);
+        }
+        assertTrue(decayed.isDecayed());
+        assertNull(decayed.getSums());
+        assertEquals(10, decayed.getWeight(), 1e-12);
+        assertArrayEquals(cumulative.getTimings(), decayed.getTimings(), 1e-9);
+    }
+
+    @Test
+    public void decayedFollowsDrift() throws Exception {
+        double retention = DecayedStats.retention(20);
+        WordProfile decayed = WordProfile.of(new long[] {100}, 1);
+        WordProfile cumulative = WordProfile.of(new long[] {100}, 1);
+        for (int i = 0; i < 1000; ++i) {
+            decayed.addDecayed(new long[] {100}, retention);
+            cumulative.add(new long[] {100});
+        }
+        for (int i = 0; i < 100; ++i) {
+            decayed.addDecayed(new long[] {200}, retention);
+            cumulative.add(new long[] {200});
+        }
+        // five half-lives in, only 1/32 of the old weight is left
+        assertEquals(200 - 100/32.0, decayed.getTimings()[0], 0.5);
+        assertTrue(cumulative.getTimings()[0] < 110);
+        // the weight stays bounded by 1/(1 - retention)
+        assertTrue(decayed.getWeight() < 1/(1 - retention));
+        assertEquals(1101, decayed.getCount());
+    }
+
+    @Test
+    public void matureProfileFollowsDriftOnceDecayed() throws Exception {
+        WordProfile profile = WordProfile.of(new long[] {100}, 1);
+        for (int i = 1; i < 1000; ++i) {
+            profile.add(new long[] {100});
+        }
+        double retention = DecayedStats.retention(20);
+        for (int i = 0; i < 20; ++i) {
+            profile.addDecayed(new long[] {200}, retention);
+        }
+        // a half-life in, the old samples weigh as much as the new ones
+        assertEquals(150, profile.getTimings()[0], 1);
+        assertEquals(1/(1 - retention), profile.getWeight(), 1e-9);
+    }
+
+    @Test
+    public void switchesBackToSums() throws Exception {
+        WordProfile profile = WordProfile.of(new long[] {100}, 1);
+        // without decay the averages are those of 100 and 120
+        profile.addDecayed(new long[] {120}, 1);
+        profile.add(new long[] {110});
+        assertFalse(profile.isDecayed());
+        assertEquals(3, profile.getCount());
+        assertArrayEquals(new long[] {330, 36500}, profile.getSums());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void decayedCannotBeMerged() throws Exception {
+        WordProfile decayed = WordProfile.of(new long[] {100}, 1);
+        decayed.addDecayed(new long[] {120}, 0.5);
+        WordProfile.of(new long[] {100}, 1).merge(decayed);
+    }
+
+    @Test
+    public void compactKeepsAveragesAndVariances() throws Exception {
+        WordProfile profile = profile(samples(1000, 5), 0, 1000);
+        double[] before = profile.getTimings().clone();
+        assertFalse(profile.compact(1000));
+        assertTrue(profile.compact(100));
+        assertEquals(100, profile.getCount());
+        for (int i = 0; i < before.length; ++i) {
+            assertEquals(before[i], profile.getTimings()[i], 1e-3*before[i]);
+        }
+        // a new sample now weighs ten times as much
+        profile.add(new long[] {1000, 1000, 1000, 1000, 1000, 1000, 1000});
+        assertEquals(before[0] + (1000 - before[0])/101, profile.getTimings()[0], 0.1);
+    }
+}
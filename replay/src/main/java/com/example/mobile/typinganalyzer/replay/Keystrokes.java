@@ -0,0 +1,66 @@
+package com.example.mobile.typinganalyzer.replay;
+
+import java.util.Arrays;
+
+/* All recorded key releases of one user, session after session, in parallel primitive arrays so a
+ * corpus of millions of keys costs a few arrays rather than millions of objects. sessionEnd(i) is
+ * the index one past the last key of session i.
+ */
+public final class Keystrokes {
+    int[] codes = new int[4096];
+    long[] durations = new long[4096];
+    long[] eventTimes = new long[4096];
+    int size;
+    private int[] sessionEnds = new int[16];
+    private int sessions;
+
+    public int size() {
+        return size;
+    }
+
+    public int sessionCount() {
+        return sessions;
+    }
+
+    public int sessionEnd(int session) {
+        return sessionEnds[session];
+    }
+
+    public int code(int i) {
+        return codes[i];
+    }
+
+    public long duration(int i) {
+        return durations[i];
+    }
+
+    public long eventTime(int i) {
+        return eventTimes[i];
+    }
+
+    void add(int code, long duration, long eventTime) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, 2*size);
+            durations = Arrays.copyOf(durations, 2*size);
+            eventTimes = Arrays.copyOf(eventTimes, 2*size);
+        }
+        codes[size] = code;
+        durations[size] = duration;
+        eventTimes[size] = eventTime;
+        ++size;
+    }
+
+    /* closes the current session, empty sessions are dropped */
+    void endSession() {
+        if (sessions > 0 && sessionEnds[sessions - 1] == size) {
+            return;
+        }
+        if (sessions == 0 && size == 0) {
+            return;
+        }
+        if (sessions == sessionEnds.length) {
+            sessionEnds = Arrays.copyOf(sessionEnds, 2*sessions);
+        }
+        sessionEnds[sessions++] = size;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.mobile.typinganalyzer.replay;
+
+import com.example.mobile.typinganalyzer.AnalyzerConfig;
+import com.example.mobile.typinganalyzer.DictionaryIndex;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/* Command line replay of recorded typing sessions through AnalyzerCore, to see what other
+ * thresholds would have done with real typing:
+ *
+ *     replay [--score 15,20,25] [--count 3,5] [--stddev 1.5,2,2.5] [--half-life n]
+ *            [--threads n] [--dictionary words.txt] corpus
+ *
+ * Every subdirectory of the corpus is one user and every file in it one session, in the trace
+ * format read by SessionReader; sessions are replayed in the order of their names. A user
+ * directory can instead hold the segments of a KeystrokeLog copied off a device. Each
+ * threshold takes a comma separated list and every combination is replayed, the defaults being
+ * the values the keyboard runs with. --half-life replays every combination with decayed profiles
+ * (AnalyzerConfig.halfLife). Users are spread over a fork-join pool with one worker per
+ * core unless --threads says otherwise. Next to what happened during the replay, the report
+ * gives the share of their own words that the final profiles of the users reject.
+ */
+public final class Replay {
+    private Replay() {}
+
+    public static void main(String[] args) throws Exception {
+        AnalyzerConfig defaults = new AnalyzerConfig();
+        double[] scores = {defaults.scoreThreshold};
+        int[] counts = {defaults.countThreshold};
+        double[] stdDevs = {defaults.stdDevThreshold};
+        int halfLife = defaults.halfLife;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String dictionaryPath = null;
+        String corpusPath = null;
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            try {
+                if (arg.equals("--score")) {
+                    scores = parseList(value(args, ++i, arg));
+                } else if (arg.equals("--count")) {
+                    counts = parseIntList(value(args, ++i, arg));
+                } else if (arg.equals("--stddev")) {
+                    stdDevs = parseList(value(args, ++i, arg));
+                } else if (arg.equals("--half-life")) {
+                    halfLife = Integer.parseInt(value(args, ++i, arg));
+                } else if (arg.equals("--threads")) {
+                    threads = Integer.parseInt(value(args, ++i, arg));
+                } else if (arg.equals("--dictionary")) {
+                    dictionaryPath = value(args, ++i, arg);
+                } else if (arg.startsWith("--") || corpusPath != null) {
+                    usage("unexpected argument " + arg);
+                } else {
+                    corpusPath = arg;
+                }
+            } catch (NumberFormatException e) {
+                usage("bad value for " + arg + ": " + args[i]);
+            }
+        }
+        if (corpusPath == null) {
+            usage("no corpus given");
+        }
+
+        AnalyzerConfig[] configs = sweep(scores, counts, stdDevs);
+        for (AnalyzerConfig config : configs) {
+            config.halfLife = halfLife;
+        }
+        byte[] dictionary = compileDictionary(dictionaryPath == null
+                ? Replay.class.getResourceAsStream("/words.txt") : new FileInputStream(dictionaryPath));
+        File[] users = users(new File(corpusPath));
+        if (users.length == 0) {
+            usage("no users in " + corpusPath);
+        }
+
+        long start = System.nanoTime();
+        ReplayResult[] results = run(users, configs, dictionary, threads);
+        long elapsed = System.nanoTime() - start;
+        report(System.out, configs, results, elapsed, threads);
+    }
+
+    /* replays the users with every configuration, returns one merged result per configuration */
+    public static ReplayResult[] run(File[] users, AnalyzerConfig[] configs, byte[] dictionary, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new ReplayTask(users, 0, users.length, configs, dictionary));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* every combination of the thresholds, on top of the keyboard's defaults */
+    public static AnalyzerConfig[] sweep(double[] scores, int[] counts, double[] stdDevs) {
+        AnalyzerConfig[] configs = new AnalyzerConfig[scores.length*counts.length*stdDevs.length];
+        int n = 0;
+        for (double score : scores) {
+            for (int count : counts) {
+                for (double stdDev : stdDevs) {
+                    AnalyzerConfig config = new AnalyzerConfig();
+                    config.scoreThreshold = score;
+                    config.countThreshold = count;
+                    config.stdDevThreshold = stdDev;
+                    configs[n++] = config;
+                }
+            }
+        }
+        return configs;
+    }
+
+    /* the user directories of the corpus, sorted by name */
+    public static File[] users(File corpus) {
+        File[] files = corpus.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> users = new ArrayList<>();
+        for (File file : files) {
+            if (file.isDirectory() && !file.getName().startsWith(".")) {
+                users.add(file);
+            }
+        }
+        File[] sorted = users.toArray(new File[users.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /* compiles a word list, one word per line, into a DictionaryIndex image */
+    public static byte[] compileDictionary(InputStream stream) throws IOException {
+        if (stream == null) {
+            throw new IOException("words.txt is not on the classpath");
+        }
+        List<String> words = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(stream, "US-ASCII"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    words.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DictionaryIndex.write(words, out);
+        return out.toByteArray();
+    }
+
+    static void report(PrintStream out, AnalyzerConfig[] configs, ReplayResult[] results, long elapsedNanos, int threads) {
+        long keys = 0;
+        for (ReplayResult result : results) {
+            keys += result.getKeys();
+        }
+        double seconds = elapsedNanos/1e9;
+        out.printf("%d users, %d configurations, %d keys replayed in %.2f s%n",
+                results[0].getUsers(), configs.length, keys, seconds);
+        out.printf("%.0f keys/s, %.0f keys/s per thread (%d threads)%n",
+                keys/seconds, keys/seconds/threads, threads);
+        if (configs[0].halfLife > 0) {
+            out.printf("decayed profiles, half-life of %d samples%n", configs[0].halfLife);
+        }
+        out.println();
+        out.printf("%8s %6s %7s %10s %10s %15s %9s %12s %14s%n",
+                "score", "count", "stddev", "scored", "rejected", "final rejected", "alerts", "key alerts", "users alerted");
+        for (int i = 0; i < configs.length; ++i) {
+            AnalyzerConfig config = configs[i];
+            ReplayResult result = results[i];
+            double rejected = result.getWordsScored() == 0 ? 0 : 100.0*result.getWordsRejected()/result.getWordsScored();
+            double finalRejected = result.getFinalWordsScored() == 0
+                    ? 0 : 100.0*result.getFinalWordsRejected()/result.getFinalWordsScored();
+            out.printf("%8.2f %6d %7.2f %10d %9.1f%% %14.1f%% %9d %12d %14d%n",
+                    config.scoreThreshold, config.countThreshold, config.stdDevThreshold,
+                    result.getWordsScored(), rejected, finalRejected, result.getScoreAlerts(),
+                    result.getKeystrokeAlerts(), result.getUsersAlerted());
+        }
+    }
+
+    private static double[] parseList(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            values[i] = Double.parseDouble(parts[i].trim());
+        }
+        return values;
+    }
+
+    /* whole numbers only, "3.5" is rejected rather than cut down to 3 */
+    static int[] parseIntList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            usage(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("usage: replay [--score a,b,...] [--count a,b,...] [--stddev a,b,...] [--half-life n] [--threads n] [--dictionary words.txt] corpus");
+        System.exit(2);
+    }
+}
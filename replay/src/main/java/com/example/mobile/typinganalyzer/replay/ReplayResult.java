@@ -0,0 +1,66 @@
+package com.example.mobile.typinganalyzer.replay;
+
+/* What one configuration of the sweep did over some users. Results of different users are
+ * combined with merge(), so the fork-join tasks never share anything while they run.
+ */
+public final class ReplayResult {
+    long keys;
+    long wordsScored;
+    long wordsRejected;
+    long scoreAlerts;
+    long keystrokeAlerts;
+    long finalWordsScored;
+    long finalWordsRejected;
+    int users;
+    int usersAlerted;
+
+    public void merge(ReplayResult other) {
+        keys += other.keys;
+        wordsScored += other.wordsScored;
+        wordsRejected += other.wordsRejected;
+        scoreAlerts += other.scoreAlerts;
+        keystrokeAlerts += other.keystrokeAlerts;
+        finalWordsScored += other.finalWordsScored;
+        finalWordsRejected += other.finalWordsRejected;
+        users += other.users;
+        usersAlerted += other.usersAlerted;
+    }
+
+    public long getKeys() {
+        return keys;
+    }
+
+    public long getWordsScored() {
+        return wordsScored;
+    }
+
+    public long getWordsRejected() {
+        return wordsRejected;
+    }
+
+    public long getScoreAlerts() {
+        return scoreAlerts;
+    }
+
+    public long getKeystrokeAlerts() {
+        return keystrokeAlerts;
+    }
+
+    /* the words scored again against the final profiles of their user */
+    public long getFinalWordsScored() {
+        return finalWordsScored;
+    }
+
+    /* the words the final profiles of their own user reject */
+    public long getFinalWordsRejected() {
+        return finalWordsRejected;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getUsersAlerted() {
+        return usersAlerted;
+    }
+}
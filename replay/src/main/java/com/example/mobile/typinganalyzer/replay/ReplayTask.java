@@ -0,0 +1,120 @@
+package com.example.mobile.typinganalyzer.replay;
+
+import com.example.mobile.typinganalyzer.AnalyzerConfig;
+import com.example.mobile.typinganalyzer.DictionaryIndex;
+import com.example.mobile.typinganalyzer.KeystrokeLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/* Replays the users from..to of the corpus, one user per leaf task. A user's sessions depend on
+ * each other (the profiles learned in one are used in the next), so a user is the unit of work;
+ * the users themselves are independent and are split in halves until each task has one. A leaf
+ * reads the user's sessions once and runs every configuration of the sweep over them.
+ */
+final class ReplayTask extends RecursiveTask<ReplayResult[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final File[] users;
+    private final int from;
+    private final int to;
+    private final AnalyzerConfig[] configs;
+    private final byte[] dictionary;
+
+    ReplayTask(File[] users, int from, int to, AnalyzerConfig[] configs, byte[] dictionary) {
+        this.users = users;
+        this.from = from;
+        this.to = to;
+        this.configs = configs;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    protected ReplayResult[] compute() {
+        if (to == from) {
+            // no users at all, nothing to split
+            ReplayResult[] results = new ReplayResult[configs.length];
+            for (int i = 0; i < results.length; ++i) {
+                results[i] = new ReplayResult();
+            }
+            return results;
+        }
+        if (to - from == 1) {
+            return replay(users[from]);
+        }
+        int middle = (from + to) >>> 1;
+        ReplayTask left = new ReplayTask(users, from, middle, configs, dictionary);
+        ReplayTask right = new ReplayTask(users, middle, to, configs, dictionary);
+        left.fork();
+        ReplayResult[] results = right.compute();
+        ReplayResult[] others = left.join();
+        for (int i = 0; i < results.length; ++i) {
+            results[i].merge(others[i]);
+        }
+        return results;
+    }
+
+    private ReplayResult[] replay(File user) {
+        Keystrokes keystrokes = new Keystrokes();
+        if (KeystrokeLog.segments(user).length > 0) {
+            readLog(user, keystrokes);
+        } else {
+            readSessions(user, keystrokes);
+        }
+        // the lazily filled word table of the index is per task, only the bytes are shared
+        DictionaryIndex index = DictionaryIndex.load(ByteBuffer.wrap(dictionary));
+        return new UserReplay(index).run(keystrokes, configs);
+    }
+
+    /* a keystroke log pulled off a device is replayed as one long session */
+    private static void readLog(File user, Keystrokes keystrokes) {
+        try {
+            KeystrokeLog.Cursor cursor = KeystrokeLog.read(user);
+            while (cursor.next()) {
+                keystrokes.add(cursor.keycode(), cursor.dwell(), cursor.releaseTime());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read the keystroke log of " + user + ": " + e.getMessage(), e);
+        }
+        keystrokes.endSession();
+    }
+
+    private static void readSessions(File user, Keystrokes keystrokes) {
+        SessionReader reader = new SessionReader();
+        for (File session : sessions(user)) {
+            try {
+                // SessionReader does its own buffering
+                InputStream in = new FileInputStream(session);
+                try {
+                    reader.read(in, keystrokes);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot read " + session + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /* the session files of a user, oldest first; session files are named so they sort by time */
+    static File[] sessions(File user) {
+        File[] sessions = user.listFiles();
+        if (sessions == null) {
+            return new File[0];
+        }
+        int n = 0;
+        for (File session : sessions) {
+            if (session.isFile() && !session.getName().startsWith(".")) {
+                sessions[n++] = session;
+            }
+        }
+        sessions = Arrays.copyOf(sessions, n);
+        Arrays.sort(sessions);
+        return sessions;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.mobile.typinganalyzer.replay;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/* Parses session files straight from the bytes into a Keystrokes, without a String per line, since
+ * parsing is a good part of the cost of a replay. The format is the one of the benchmark traces:
+ * text, one key per line with the key code, the press duration and the release time in
+ * milliseconds, separated by spaces. Lines starting with # and blank lines are ignored.
+ */
+public final class SessionReader {
+    private static final int FIELDS = 3;
+
+    private final byte[] buffer = new byte[64*1024];
+    private final long[] fields = new long[FIELDS];
+    private InputStream in;
+    private int position;
+    private int limit;
+    private int line;
+
+    /* appends the keys of one session to the keystrokes and closes the session */
+    public void read(InputStream in, Keystrokes keystrokes) throws IOException {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        line = 0;
+        int c;
+        while ((c = next()) >= 0) {
+            ++line;
+            if (c == '#') {
+                skipLine();
+                continue;
+            }
+            int count = 0;
+            while (c >= 0 && c != '\n') {
+                if (c == ' ' || c == '\t' || c == '\r') {
+                    c = next();
+                    continue;
+                }
+                if (count == FIELDS) {
+                    throw error("more than " + FIELDS + " fields");
+                }
+                c = parseNumber(c, count++);
+            }
+            if (count == FIELDS) {
+                keystrokes.add((int)fields[0], fields[1], fields[2]);
+            } else if (count != 0) {
+                throw error("expected " + FIELDS + " fields");
+            }
+        }
+        keystrokes.endSession();
+    }
+
+    /* parses the number starting with c into fields[field] and returns the character after it */
+    private int parseNumber(int c, int field) throws IOException {
+        boolean negative = c == '-';
+        if (negative) {
+            c = next();
+        }
+        if (c < '0' || c > '9') {
+            throw error("not a number");
+        }
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = 10*value + (c - '0');
+            c = next();
+        }
+        fields[field] = negative ? -value : value;
+        return c;
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c >= 0 && c != '\n');
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private IOException error(String message) {
+        return new IOException("line " + line + ": " + message);
+    }
+}
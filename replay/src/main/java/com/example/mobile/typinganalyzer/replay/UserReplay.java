@@ -0,0 +1,144 @@
+package com.example.mobile.typinganalyzer.replay;
+
+import com.example.mobile.typinganalyzer.AlertSink;
+import com.example.mobile.typinganalyzer.AnalyzerConfig;
+import com.example.mobile.typinganalyzer.AnalyzerCore;
+import com.example.mobile.typinganalyzer.BatchScorer;
+import com.example.mobile.typinganalyzer.Clock;
+import com.example.mobile.typinganalyzer.DictionaryIndex;
+import com.example.mobile.typinganalyzer.InMemoryProfileStore;
+import com.example.mobile.typinganalyzer.InMemoryStateStore;
+import com.example.mobile.typinganalyzer.WordBuffer;
+import com.example.mobile.typinganalyzer.WordProfile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* Replays the sessions of one user through a fresh AnalyzerCore with in-memory stores, once per
+ * configuration. The analyzer starts from nothing, like a new install, and is flushed at the end
+ * of every session like the keyboard does when the input finishes. The clock is the release time
+ * of the key being replayed.
+ *
+ * Afterwards every word of the user is scored once more against the final profiles, which tells
+ * how well the model knows its own user once it has learned all there is; the words the online
+ * replay rejected while the profiles were still young do not say that. The final profiles no
+ * longer change, so those words are independent of each other and go through the BatchScorer.
+ */
+final class UserReplay implements Clock, AlertSink {
+    private static final int RESCORE_BATCH = 256;
+    private static final int KEYCODE_DELETE = -5;
+
+    private final DictionaryIndex dictionary;
+    private ReplayResult result;
+    private long time;
+
+    UserReplay(DictionaryIndex dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    ReplayResult[] run(Keystrokes keystrokes, AnalyzerConfig[] configs) {
+        ReplayResult[] results = new ReplayResult[configs.length];
+        for (int i = 0; i < configs.length; ++i) {
+            results[i] = run(keystrokes, configs[i]);
+        }
+        return results;
+    }
+
+    ReplayResult run(Keystrokes keystrokes, AnalyzerConfig config) {
+        result = new ReplayResult();
+        result.users = 1;
+        time = keystrokes.size > 0 ? keystrokes.eventTimes[0] : 0;
+        InMemoryProfileStore profiles = new InMemoryProfileStore();
+        AnalyzerCore core = new AnalyzerCore(config, this, dictionary, profiles, new InMemoryStateStore(), this);
+        int[] codes = keystrokes.codes;
+        long[] durations = keystrokes.durations;
+        long[] eventTimes = keystrokes.eventTimes;
+        int key = 0;
+        for (int session = 0; session < keystrokes.sessionCount(); ++session) {
+            int end = keystrokes.sessionEnd(session);
+            for (; key < end; ++key) {
+                time = eventTimes[key];
+                core.push_char(codes[key], durations[key], time);
+            }
+            core.flush(time);
+        }
+        result.keys = key;
+        rescore(keystrokes, profiles.snapshot(), config);
+        if (result.scoreAlerts + result.keystrokeAlerts > 0) {
+            result.usersAlerted = 1;
+        }
+        return result;
+    }
+
+    /* Splits the keys into words the way AnalyzerCore.push_char does and scores the dictionary
+     * words with an established profile against it, a batch at a time. The standard deviations
+     * are taken once per profile rather than once per word.
+     */
+    private void rescore(Keystrokes keystrokes, Map<String, WordProfile> profiles, AnalyzerConfig config) {
+        BatchScorer batch = new BatchScorer(config.stdDevThreshold, RESCORE_BATCH);
+        Map<String, double[]> stdDevs = new HashMap<>();
+        WordBuffer word = new WordBuffer(config.initialWordCapacity);
+        long timer = 0;
+        for (int key = 0; key < keystrokes.size; ++key) {
+            int c = keystrokes.codes[key];
+            long duration = keystrokes.durations[key];
+            long eventTime = keystrokes.eventTimes[key];
+            long latency = word.length() > 0 ? Math.max(0, eventTime - timer - duration) : 0;
+            timer = eventTime;
+            if (c == ' ') {
+                int id = dictionary.lookup(word.chars(), word.length());
+                WordProfile profile = id >= 0 ? profiles.get(dictionary.word(id)) : null;
+                if (profile != null && profile.getCount() >= config.countThreshold) {
+                    double[] profileStdDevs = stdDevs.get(dictionary.word(id));
+                    if (profileStdDevs == null) {
+                        profileStdDevs = BatchScorer.stdDevs(profile.getTimings());
+                        stdDevs.put(dictionary.word(id), profileStdDevs);
+                    }
+                    batch.add(profile.getTimings(), profileStdDevs, word.timings(), word.length());
+                    if (batch.size() == RESCORE_BATCH) {
+                        scoreBatch(batch);
+                    }
+                }
+                word.reset();
+            } else if (c == KEYCODE_DELETE) {
+                word.reset();
+            } else if ((c > 64 && c < 91) || (c > 96 && c < 123)) { // A-Z and a-z
+                word.append((char)c, latency, duration);
+            }
+        }
+        scoreBatch(batch);
+    }
+
+    private void scoreBatch(BatchScorer batch) {
+        batch.score();
+        for (int w = 0; w < batch.size(); ++w) {
+            result.finalWordsScored++;
+            if (!batch.isAccepted(w)) {
+                result.finalWordsRejected++;
+            }
+        }
+        batch.clear();
+    }
+
+    @Override
+    public long now() {
+        return time;
+    }
+
+    @Override
+    public void onWordScored(double score, boolean accepted) {
+        result.wordsScored++;
+        if (!accepted) {
+            result.wordsRejected++;
+        }
+    }
+
+    @Override
+    public void onThresholdExceeded(String scoreName, double score, double threshold) {
+        if (AnalyzerCore.KEYSTROKE_SCORE_ID.equals(scoreName)) {
+            result.keystrokeAlerts++;
+        } else {
+            result.scoreAlerts++;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.mobile.typinganalyzer.replay;
+
+import com.example.mobile.typinganalyzer.AnalyzerConfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.*;
+
+public class ReplayTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Keystrokes parse(String text) throws IOException {
+        Keystrokes keystrokes = new Keystrokes();
+        new SessionReader().read(new ByteArrayInputStream(text.getBytes("US-ASCII")), keystrokes);
+        return keystrokes;
+    }
+
+    @Test
+    public void parsesSessions() throws Exception {
+        Keystrokes keystrokes = parse("# a session\n116 90 1000\r\n\n  104\t85 1200\n-5 70 1400");
+        assertEquals(3, keystrokes.size());
+        assertEquals(1, keystrokes.sessionCount());
+        assertEquals(3, keystrokes.sessionEnd(0));
+        assertEquals(104, keystrokes.codes[1]);
+        assertEquals(85, keystrokes.durations[1]);
+        assertEquals(1200, keystrokes.eventTimes[1]);
+        assertEquals(-5, keystrokes.codes[2]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsShortLines() throws Exception {
+        parse("116 90\n");
+    }
+
+    /* types the word count times, steadily, then once with very different timings */
+    private void writeSession(File file, String word, int count, long start) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+        try {
+            long time = start;
+            for (int i = 0; i <= count; ++i) {
+                long duration = i < count ? 100 + i%2 : 300;
+                long gap = i < count ? 50 + i%2 : 400;
+                for (int j = 0; j <= word.length(); ++j) {
+                    int code = j < word.length() ? word.charAt(j) : ' ';
+                    time += duration + gap;
+                    out.write(code + " " + duration + " " + time + "\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void sweepsThresholdsOverAllUsers() throws Exception {
+        for (int user = 0; user < 3; ++user) {
+            File dir = folder.newFolder("user" + user);
+            writeSession(new File(dir, "1.trace"), "the", 6, 0);
+            writeSession(new File(dir, "2.trace"), "the", 2, 100000);
+        }
+        byte[] dictionary = Replay.compileDictionary(new ByteArrayInputStream("the\nand\n".getBytes("US-ASCII")));
+        AnalyzerConfig[] configs = Replay.sweep(new double[] {1, 100}, new int[] {5}, new double[] {2});
+
+        ReplayResult[] results = Replay.run(Replay.users(folder.getRoot()), configs, dictionary, 2);
+        assertEquals(2, results.length);
+        for (ReplayResult result : results) {
+            assertEquals(3, result.getUsers());
+            assertEquals(3*4*(7 + 3), result.getKeys());
+            assertTrue(result.getWordsRejected() > 0);
+            // every word once more against the final profile, which still rejects the strangers
+            assertEquals(3*(7 + 3), result.getFinalWordsScored());
+            assertTrue(result.getFinalWordsRejected() >= 3*2);
+            assertTrue(result.getFinalWordsRejected() < result.getFinalWordsScored());
+        }
+        // the stranger's word goes over the low threshold only
+        assertEquals(3, results[0].getUsersAlerted());
+        assertTrue(results[0].getScoreAlerts() >= 3);
+        assertEquals(0, results[1].getScoreAlerts());
+    }
+
+    @Test
+    public void parsesWholeCounts() {
+        assertArrayEquals(new int[] {3, 5}, Replay.parseIntList("3, 5"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsFractionalCounts() {
+        Replay.parseIntList("3,3.5");
+    }
+
+    @Test(timeout = 10000)
+    public void replaysNoUsers() throws Exception {
+        byte[] dictionary = Replay.compileDictionary(new ByteArrayInputStream("the\n".getBytes("US-ASCII")));
+        AnalyzerConfig[] configs = Replay.sweep(new double[] {20}, new int[] {5}, new double[] {2});
+        ReplayResult[] results = Replay.run(new File[0], configs, dictionary, 2);
+        assertEquals(1, results.length);
+        assertEquals(0, results[0].getUsers());
+    }
+}